@@ -0,0 +1,636 @@
+package algorithms;
+
+import main.BSTInterface;
+
+/**
+ * Relaxed-balance concurrent AVL tree, following Bronson, Casper, Chafi and
+ * Olukotun, "A Practical Concurrent Binary Search Tree" (PPoPP 2010).
+ *
+ * Readers take no locks. Each node carries a version that is bumped whenever
+ * a rotation shrinks its subtree, and a traversal re-checks the version of
+ * the node it just left (hand-over-hand) before descending further, retrying
+ * only from that node if it changed. Updates lock the one or two nodes they
+ * change, and restore balance afterwards with local rotations that walk
+ * upwards from the damaged node, so no update ever locks the root unless the
+ * root itself needs a rotation. Removal of a node with two children leaves it
+ * in place as a routing node; it is unlinked once it has at most one child.
+ */
+public class AVLTree implements BSTInterface {
+	static final long UNLINKED = 0x1L;
+	static final long SHRINKING = 0x2L;
+	static final long SHRINK_COUNT_INCR = 0x4L;
+
+	static final int SPIN_COUNT = 100;
+
+	// Return codes of the attempt* methods (avoids boxing a Boolean)
+	static final int FALSE = 0;
+	static final int TRUE = 1;
+	static final int RETRY = 2;
+
+	// Results of nodeCondition() that are not a new height
+	static final int UNLINK_REQUIRED = -1;
+	static final int REBALANCE_REQUIRED = -2;
+	static final int NOTHING_REQUIRED = -3;
+
+	static final class Node {
+		public final int key;
+		public volatile int height;
+		public volatile long version;
+		public volatile boolean deleted;
+		public volatile Node parent;
+		public volatile Node left;
+		public volatile Node right;
+
+		Node(final int key, final int height, final Node parent) {
+			this.key = key;
+			this.height = height;
+			this.parent = parent;
+		}
+
+		public final Node child(final int cmp) {
+			return (cmp < 0) ? left : right;
+		}
+
+		public final void setChild(final int cmp, final Node node) {
+			if (cmp < 0)
+				left = node;
+			else
+				right = node;
+		}
+	}
+
+	// Holds the real root in its right child, so the root can be rotated like
+	// any other node.
+	final Node rootHolder;
+
+	public AVLTree() {
+		rootHolder = new Node(Integer.MIN_VALUE, 1, null);
+	}
+
+	private static final int height(final Node node) {
+		return (node == null) ? 0 : node.height;
+	}
+
+	private static final boolean isShrinking(final long version) {
+		return (version & SHRINKING) != 0;
+	}
+
+	private static final boolean isUnlinked(final long version) {
+		return (version & UNLINKED) != 0;
+	}
+
+	private static final void waitUntilNotChanging(final Node node) {
+		final long version = node.version;
+		if (isShrinking(version)) {
+			for (int i = 0; i < SPIN_COUNT; i++) {
+				if (node.version != version)
+					return;
+			}
+			// The rotation is done while holding the node's lock
+			synchronized (node) {
+			}
+		}
+	}
+
+	public final boolean contains(final int key) {
+		return attemptGet(key, rootHolder, 1, rootHolder.version) == TRUE;
+	}
+
+	private final int attemptGet(final int key, final Node node, final int dir, final long nodeVersion) {
+		while (true) {
+			final Node child = node.child(dir);
+			if (child == null) {
+				if (node.version != nodeVersion)
+					return RETRY;
+				return FALSE;
+			}
+
+			final int childCmp = Integer.compare(key, child.key);
+			if (childCmp == 0)
+				return child.deleted ? FALSE : TRUE;
+
+			final long childVersion = child.version;
+			if (isShrinking(childVersion)) {
+				waitUntilNotChanging(child);
+			} else if (!isUnlinked(childVersion) && child == node.child(dir)) {
+				// child was read while node's subtree still covered key
+				if (node.version != nodeVersion)
+					return RETRY;
+				final int result = attemptGet(key, child, childCmp, childVersion);
+				if (result != RETRY)
+					return result;
+			}
+			// Give up on node if it moved while we waited or lost a race
+			if (node.version != nodeVersion)
+				return RETRY;
+		}
+	}
+
+	public final boolean insert(final int key) {
+		return update(key, false);
+	}
+
+	public final boolean remove(final int key) {
+		return update(key, true);
+	}
+
+	private final boolean update(final int key, final boolean remove) {
+		while (true) {
+			final Node root = rootHolder.right;
+			if (root == null) {
+				if (remove)
+					return false;
+				synchronized (rootHolder) {
+					if (rootHolder.right == null) {
+						rootHolder.right = new Node(key, 1, rootHolder);
+						return true;
+					}
+				}
+			} else {
+				final long rootVersion = root.version;
+				if (isShrinking(rootVersion)) {
+					waitUntilNotChanging(root);
+				} else if (!isUnlinked(rootVersion) && root == rootHolder.right) {
+					final int result = attemptUpdate(key, remove, rootHolder, root, rootVersion);
+					if (result != RETRY)
+						return result == TRUE;
+				}
+			}
+		}
+	}
+
+	private final int attemptUpdate(final int key, final boolean remove, final Node parent, final Node node,
+			final long nodeVersion) {
+		final int cmp = Integer.compare(key, node.key);
+		if (cmp == 0)
+			return attemptNodeUpdate(remove, parent, node);
+
+		while (true) {
+			final Node child = node.child(cmp);
+			if (node.version != nodeVersion)
+				return RETRY;
+
+			if (child == null) {
+				if (remove)
+					return FALSE;
+
+				final Node damaged;
+				synchronized (node) {
+					// Holding node's lock, no rotation can move key out of its subtree
+					if (node.version != nodeVersion)
+						return RETRY;
+					// Lost a race with a concurrent insert, retry this level
+					if (node.child(cmp) != null)
+						continue;
+					node.setChild(cmp, new Node(key, 1, node));
+					damaged = fixHeight_nl(node);
+				}
+				repair(damaged);
+				return TRUE;
+			}
+
+			final long childVersion = child.version;
+			if (isShrinking(childVersion)) {
+				waitUntilNotChanging(child);
+			} else if (!isUnlinked(childVersion) && child == node.child(cmp)) {
+				if (node.version != nodeVersion)
+					return RETRY;
+				final int result = attemptUpdate(key, remove, node, child, childVersion);
+				if (result != RETRY)
+					return result;
+			}
+		}
+	}
+
+	private final int attemptNodeUpdate(final boolean remove, final Node parent, final Node node) {
+		if (remove) {
+			if (node.deleted)
+				return FALSE;
+
+			if (node.left == null || node.right == null) {
+				// Potential unlink, lock parent first to keep the lock order top-down
+				final Node damaged;
+				synchronized (parent) {
+					if (isUnlinked(parent.version) || node.parent != parent)
+						return RETRY;
+					synchronized (node) {
+						if (node.deleted)
+							return FALSE;
+						if (!attemptUnlink_nl(parent, node))
+							return RETRY;
+					}
+					damaged = fixHeight_nl(parent);
+				}
+				repair(damaged);
+				return TRUE;
+			}
+		}
+
+		synchronized (node) {
+			if (isUnlinked(node.version))
+				return RETRY;
+			if (remove) {
+				if (node.deleted)
+					return FALSE;
+				// A child went away since we looked, so node should be unlinked instead
+				if (node.left == null || node.right == null)
+					return RETRY;
+				node.deleted = true;
+				return TRUE;
+			}
+			if (!node.deleted)
+				return FALSE;
+			node.deleted = false;
+			return TRUE;
+		}
+	}
+
+	// Splices node (with at most one child) out from under parent. Both locks held.
+	private final boolean attemptUnlink_nl(final Node parent, final Node node) {
+		final Node parentL = parent.left;
+		final Node parentR = parent.right;
+		if (parentL != node && parentR != node)
+			return false;
+
+		final Node left = node.left;
+		final Node right = node.right;
+		if (left != null && right != null)
+			return false;
+
+		final Node splice = (left != null) ? left : right;
+		if (parentL == node)
+			parent.left = splice;
+		else
+			parent.right = splice;
+		if (splice != null)
+			splice.parent = parent;
+
+		node.version = UNLINKED;
+		node.deleted = true;
+		return true;
+	}
+
+	final int nodeCondition(final Node node) {
+		final Node nL = node.left;
+		final Node nR = node.right;
+
+		if ((nL == null || nR == null) && node.deleted)
+			return UNLINK_REQUIRED;
+
+		final int hN = node.height;
+		final int hL0 = height(nL);
+		final int hR0 = height(nR);
+		final int hNRepl = 1 + Math.max(hL0, hR0);
+		final int bal = hL0 - hR0;
+
+		if (bal < -1 || bal > 1)
+			return REBALANCE_REQUIRED;
+
+		return (hN != hNRepl) ? hNRepl : NOTHING_REQUIRED;
+	}
+
+	// Called by updates with the node they left damaged (or null). Repairs the
+	// damage before returning; subclasses may defer it instead.
+	void repair(final Node damaged) {
+		fixHeightAndRebalance(damaged);
+	}
+
+	// Walks up from node, repairing heights and balance one lock at a time.
+	final void fixHeightAndRebalance(Node node) {
+		while (node != null && node.parent != null) {
+			final int condition = nodeCondition(node);
+			if (condition == NOTHING_REQUIRED || isUnlinked(node.version))
+				return;
+
+			if (condition != UNLINK_REQUIRED && condition != REBALANCE_REQUIRED) {
+				synchronized (node) {
+					node = fixHeight_nl(node);
+				}
+			} else {
+				final Node nParent = node.parent;
+				synchronized (nParent) {
+					if (!isUnlinked(nParent.version) && node.parent == nParent) {
+						synchronized (node) {
+							node = rebalance_nl(nParent, node);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	// Returns the next node that needs attention, or null if none does.
+	private final Node fixHeight_nl(final Node node) {
+		final int condition = nodeCondition(node);
+		switch (condition) {
+		case REBALANCE_REQUIRED:
+		case UNLINK_REQUIRED:
+			return node;
+		case NOTHING_REQUIRED:
+			return null;
+		default:
+			node.height = condition;
+			return node.parent;
+		}
+	}
+
+	private final Node rebalance_nl(final Node nParent, final Node n) {
+		final Node nL = n.left;
+		final Node nR = n.right;
+
+		if ((nL == null || nR == null) && n.deleted) {
+			if (attemptUnlink_nl(nParent, n))
+				return fixHeight_nl(nParent);
+			return n;
+		}
+
+		final int hN = n.height;
+		final int hL0 = height(nL);
+		final int hR0 = height(nR);
+		final int hNRepl = 1 + Math.max(hL0, hR0);
+		final int bal = hL0 - hR0;
+
+		if (bal > 1) {
+			return rebalanceToRight_nl(nParent, n, nL, hR0);
+		} else if (bal < -1) {
+			return rebalanceToLeft_nl(nParent, n, nR, hL0);
+		} else if (hNRepl != hN) {
+			n.height = hNRepl;
+			return fixHeight_nl(nParent);
+		} else {
+			return null;
+		}
+	}
+
+	private final Node rebalanceToRight_nl(final Node nParent, final Node n, final Node nL, final int hR0) {
+		synchronized (nL) {
+			final int hL = nL.height;
+			if (hL - hR0 <= 1)
+				return n;
+
+			final Node nLR = nL.right;
+			final int hLL0 = height(nL.left);
+			final int hLR0 = height(nLR);
+			if (hLL0 >= hLR0)
+				return rotateRight_nl(nParent, n, nL, hR0, hLL0, nLR, hLR0);
+
+			synchronized (nLR) {
+				final int hLR = nLR.height;
+				if (hLL0 >= hLR)
+					return rotateRight_nl(nParent, n, nL, hR0, hLL0, nLR, hLR);
+
+				final int hLRL = height(nLR.left);
+				final int b = hLL0 - hLRL;
+				if (b >= -1 && b <= 1 && !((hLL0 == 0 || hLRL == 0) && nL.deleted))
+					return rotateRightOverLeft_nl(nParent, n, nL, hR0, hLL0, nLR, hLRL);
+			}
+			// nL needs a left rotation first
+			return rebalanceToLeft_nl(n, nL, nLR, hLL0);
+		}
+	}
+
+	private final Node rebalanceToLeft_nl(final Node nParent, final Node n, final Node nR, final int hL0) {
+		synchronized (nR) {
+			final int hR = nR.height;
+			if (hL0 - hR >= -1)
+				return n;
+
+			final Node nRL = nR.left;
+			final int hRL0 = height(nRL);
+			final int hRR0 = height(nR.right);
+			if (hRR0 >= hRL0)
+				return rotateLeft_nl(nParent, n, hL0, nR, nRL, hRL0, hRR0);
+
+			synchronized (nRL) {
+				final int hRL = nRL.height;
+				if (hRR0 >= hRL)
+					return rotateLeft_nl(nParent, n, hL0, nR, nRL, hRL, hRR0);
+
+				final int hRLR = height(nRL.right);
+				final int b = hRR0 - hRLR;
+				if (b >= -1 && b <= 1 && !((hRR0 == 0 || hRLR == 0) && nR.deleted))
+					return rotateLeftOverRight_nl(nParent, n, hL0, nR, nRL, hRR0, hRLR);
+			}
+			// nR needs a right rotation first
+			return rebalanceToRight_nl(n, nR, nRL, hRR0);
+		}
+	}
+
+	private final Node rotateRight_nl(final Node nParent, final Node n, final Node nL, final int hR,
+			final int hLL, final Node nLR, final int hLR) {
+		final long nodeVersion = n.version;
+		final Node nPL = nParent.left;
+
+		n.version = nodeVersion | SHRINKING;
+
+		n.left = nLR;
+		if (nLR != null)
+			nLR.parent = n;
+
+		nL.right = n;
+		n.parent = nL;
+
+		if (nPL == n)
+			nParent.left = nL;
+		else
+			nParent.right = nL;
+		nL.parent = nParent;
+
+		final int hNRepl = 1 + Math.max(hLR, hR);
+		n.height = hNRepl;
+		nL.height = 1 + Math.max(hLL, hNRepl);
+
+		n.version = nodeVersion + SHRINK_COUNT_INCR;
+
+		// The rotation may have left n or nL in need of further work
+		final int balN = hLR - hR;
+		if (balN < -1 || balN > 1)
+			return n;
+		if ((nLR == null || hR == 0) && n.deleted)
+			return n;
+
+		final int balL = hLL - hNRepl;
+		if (balL < -1 || balL > 1)
+			return nL;
+		if (hLL == 0 && nL.deleted)
+			return nL;
+
+		return fixHeight_nl(nParent);
+	}
+
+	private final Node rotateLeft_nl(final Node nParent, final Node n, final int hL, final Node nR,
+			final Node nRL, final int hRL, final int hRR) {
+		final long nodeVersion = n.version;
+		final Node nPL = nParent.left;
+
+		n.version = nodeVersion | SHRINKING;
+
+		n.right = nRL;
+		if (nRL != null)
+			nRL.parent = n;
+
+		nR.left = n;
+		n.parent = nR;
+
+		if (nPL == n)
+			nParent.left = nR;
+		else
+			nParent.right = nR;
+		nR.parent = nParent;
+
+		final int hNRepl = 1 + Math.max(hL, hRL);
+		n.height = hNRepl;
+		nR.height = 1 + Math.max(hNRepl, hRR);
+
+		n.version = nodeVersion + SHRINK_COUNT_INCR;
+
+		final int balN = hRL - hL;
+		if (balN < -1 || balN > 1)
+			return n;
+		if ((nRL == null || hL == 0) && n.deleted)
+			return n;
+
+		final int balR = hRR - hNRepl;
+		if (balR < -1 || balR > 1)
+			return nR;
+		if (hRR == 0 && nR.deleted)
+			return nR;
+
+		return fixHeight_nl(nParent);
+	}
+
+	private final Node rotateRightOverLeft_nl(final Node nParent, final Node n, final Node nL, final int hR,
+			final int hLL, final Node nLR, final int hLRL) {
+		final long nodeVersion = n.version;
+		final long leftVersion = nL.version;
+		final Node nPL = nParent.left;
+		final Node nLRL = nLR.left;
+		final Node nLRR = nLR.right;
+		final int hLRR = height(nLRR);
+
+		n.version = nodeVersion | SHRINKING;
+		nL.version = leftVersion | SHRINKING;
+
+		n.left = nLRR;
+		if (nLRR != null)
+			nLRR.parent = n;
+
+		nL.right = nLRL;
+		if (nLRL != null)
+			nLRL.parent = nL;
+
+		nLR.left = nL;
+		nL.parent = nLR;
+		nLR.right = n;
+		n.parent = nLR;
+
+		if (nPL == n)
+			nParent.left = nLR;
+		else
+			nParent.right = nLR;
+		nLR.parent = nParent;
+
+		final int hNRepl = 1 + Math.max(hLRR, hR);
+		n.height = hNRepl;
+		final int hLRepl = 1 + Math.max(hLL, hLRL);
+		nL.height = hLRepl;
+		nLR.height = 1 + Math.max(hLRepl, hNRepl);
+
+		n.version = nodeVersion + SHRINK_COUNT_INCR;
+		nL.version = leftVersion + SHRINK_COUNT_INCR;
+
+		final int balN = hLRR - hR;
+		if (balN < -1 || balN > 1)
+			return n;
+		if ((nLRR == null || hR == 0) && n.deleted)
+			return n;
+
+		final int balLR = hLRepl - hNRepl;
+		if (balLR < -1 || balLR > 1)
+			return nLR;
+
+		return fixHeight_nl(nParent);
+	}
+
+	private final Node rotateLeftOverRight_nl(final Node nParent, final Node n, final int hL, final Node nR,
+			final Node nRL, final int hRR, final int hRLR) {
+		final long nodeVersion = n.version;
+		final long rightVersion = nR.version;
+		final Node nPL = nParent.left;
+		final Node nRLL = nRL.left;
+		final Node nRLR = nRL.right;
+		final int hRLL = height(nRLL);
+
+		n.version = nodeVersion | SHRINKING;
+		nR.version = rightVersion | SHRINKING;
+
+		n.right = nRLL;
+		if (nRLL != null)
+			nRLL.parent = n;
+
+		nR.left = nRLR;
+		if (nRLR != null)
+			nRLR.parent = nR;
+
+		nRL.right = nR;
+		nR.parent = nRL;
+		nRL.left = n;
+		n.parent = nRL;
+
+		if (nPL == n)
+			nParent.left = nRL;
+		else
+			nParent.right = nRL;
+		nRL.parent = nParent;
+
+		final int hNRepl = 1 + Math.max(hL, hRLL);
+		n.height = hNRepl;
+		final int hRRepl = 1 + Math.max(hRLR, hRR);
+		nR.height = hRRepl;
+		nRL.height = 1 + Math.max(hNRepl, hRRepl);
+
+		n.version = nodeVersion + SHRINK_COUNT_INCR;
+		nR.version = rightVersion + SHRINK_COUNT_INCR;
+
+		final int balN = hRLL - hL;
+		if (balN < -1 || balN > 1)
+			return n;
+		if ((nRLL == null || hL == 0) && n.deleted)
+			return n;
+
+		final int balRL = hRRepl - hNRepl;
+		if (balRL < -1 || balRL > 1)
+			return nRL;
+
+		return fixHeight_nl(nParent);
+	}
+
+	public String getName() {
+		return "AVLTree";
+	}
+
+	// Returns size of the tree.
+	// NOTE: Guaranteed to be called without concurrent operations.
+	public final int size() {
+		return size(rootHolder.right);
+	}
+
+	private final int size(final Node node) {
+		if (node == null)
+			return 0;
+		return (node.deleted ? 0 : 1) + size(node.left) + size(node.right);
+	}
+
+	// Returns the sum of keys in the tree
+	// NOTE: Guaranteed to be called without concurrent operations.
+	public final long getKeysum() {
+		return getKeysum(rootHolder.right);
+	}
+
+	private final long getKeysum(final Node node) {
+		if (node == null)
+			return 0;
+		return (node.deleted ? 0 : node.key) + getKeysum(node.left) + getKeysum(node.right);
+	}
+
+}
@@ -0,0 +1,372 @@
+package algorithms;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import main.BSTInterface;
+
+/**
+ * The BST algorithm over nodes that are int indices into a NodeArena rather
+ * than Java objects.
+ *
+ * Each node's state word holds the marked and deleted flags and a spin lock
+ * bit, which replaces the per-node monitor. Indices are handed out to each
+ * thread in blocks. Unlinked nodes go through epoch-based reclamation (see
+ * Epochs) and are recycled for later inserts from a per-thread free list, so
+ * a steady-state workload allocates nothing.
+ */
+public abstract class ArenaBST implements BSTInterface {
+	static final int NIL = 0;
+
+	// State word bits
+	static final int MARKED = 0x1;
+	static final int DELETED = 0x2;
+	static final int LOCKED = 0x4;
+
+	// Indices handed to a thread at a time, so the shared counter is rarely touched
+	static final int BLOCK = 256;
+	static final int SPINS_BEFORE_YIELD = 64;
+	static final int RETIRES_PER_ADVANCE = 64;
+
+	// Per-thread allocator and reclamation state
+	static final class Local {
+		final Epochs.Participant participant;
+		int blockNext;
+		int blockEnd;
+		int[] free = new int[BLOCK];
+		int nfree;
+		final int[][] limbo = new int[3][BLOCK];
+		final int[] nlimbo = new int[3];
+		final long[] limboEpoch = new long[3];
+		int retires;
+
+		Local(final Epochs.Participant participant) {
+			this.participant = participant;
+		}
+	}
+
+	private final NodeArena arena;
+	private final AtomicInteger nextIndex = new AtomicInteger(0);
+	private final Epochs epochs = new Epochs();
+	private final ThreadLocal<Local> locals = new ThreadLocal<Local>() {
+		@Override
+		protected Local initialValue() {
+			return new Local(epochs.register());
+		}
+	};
+	private final int root;
+
+	ArenaBST(final NodeArena arena) {
+		this.arena = arena;
+		// Index 0 is NIL; the rest of its block is left unused so that blocks
+		// never straddle two chunks
+		nextIndex.set(BLOCK);
+		root = allocate(locals.get(), Integer.MIN_VALUE);
+	}
+
+	private final int child(final int node, final int key) {
+		return (arena.key(node) < key) ? arena.right(node) : arena.left(node);
+	}
+
+	private final void setChild(final int node, final int key, final int child) {
+		if (arena.key(node) < key)
+			arena.setRight(node, child);
+		else
+			arena.setLeft(node, child);
+	}
+
+	private final boolean isMarked(final int node) {
+		return (arena.state(node) & MARKED) != 0;
+	}
+
+	private final boolean isDeleted(final int node) {
+		return (arena.state(node) & DELETED) != 0;
+	}
+
+	// Only called by the lock holder
+	private final void setFlag(final int node, final int flag, final boolean value) {
+		final int s = arena.state(node);
+		arena.setState(node, value ? (s | flag) : (s & ~flag));
+	}
+
+	private final void lock(final int node) {
+		int spins = 0;
+		while (true) {
+			final int s = arena.state(node);
+			if ((s & LOCKED) == 0 && arena.casState(node, s, s | LOCKED))
+				return;
+			if (++spins > SPINS_BEFORE_YIELD)
+				Thread.yield();
+		}
+	}
+
+	private final void unlock(final int node) {
+		setFlag(node, LOCKED, false);
+	}
+
+	private final int allocate(final Local local, final int key) {
+		if (local.nfree == 0)
+			reclaim(local);
+
+		final int node;
+		if (local.nfree > 0) {
+			node = local.free[--local.nfree];
+		} else {
+			if (local.blockNext == local.blockEnd) {
+				final int start = nextIndex.getAndAdd(BLOCK);
+				if (start < 0 || start > Integer.MAX_VALUE - BLOCK)
+					throw new RuntimeException(getName() + " arena exhausted");
+				arena.ensureChunk(start >>> NodeArena.CHUNK_SHIFT);
+				local.blockNext = start;
+				local.blockEnd = start + BLOCK;
+			}
+			node = local.blockNext++;
+		}
+
+		arena.init(node, key);
+		return node;
+	}
+
+	// Called after node has been unlinked, from within the same operation
+	private final void retire(final Local local, final int node) {
+		final long e = epochs.retireEpoch();
+		final int bag = (int) (e % 3);
+		if (local.limboEpoch[bag] != e) {
+			// Whatever the bag holds is from epoch e - 3 or older
+			moveToFree(local, bag);
+			local.limboEpoch[bag] = e;
+		}
+		if (local.nlimbo[bag] == local.limbo[bag].length)
+			local.limbo[bag] = Arrays.copyOf(local.limbo[bag], 2 * local.nlimbo[bag]);
+		local.limbo[bag][local.nlimbo[bag]++] = node;
+
+		if (++local.retires % RETIRES_PER_ADVANCE == 0)
+			epochs.tryAdvance();
+	}
+
+	private final void reclaim(final Local local) {
+		boolean pending = false;
+		for (int bag = 0; bag < 3; bag++) {
+			if (local.nlimbo[bag] == 0)
+				continue;
+			if (!epochs.isSafe(local.limboEpoch[bag])) {
+				pending = true;
+				continue;
+			}
+			moveToFree(local, bag);
+		}
+		if (local.nfree == 0 && pending)
+			epochs.tryAdvance();
+	}
+
+	private final void moveToFree(final Local local, final int bag) {
+		final int n = local.nlimbo[bag];
+		if (local.nfree + n > local.free.length)
+			local.free = Arrays.copyOf(local.free, Math.max(2 * local.free.length, local.nfree + n));
+		System.arraycopy(local.limbo[bag], 0, local.free, local.nfree, n);
+		local.nfree += n;
+		local.nlimbo[bag] = 0;
+	}
+
+	public final boolean contains(final int key) {
+		final Local local = locals.get();
+		epochs.enter(local.participant);
+		try {
+			int curr = root;
+
+			while (arena.key(curr) != key) {
+				curr = child(curr, key);
+				if (curr == NIL)
+					return false;
+			}
+
+			return (arena.state(curr) & (MARKED | DELETED)) == 0;
+		} finally {
+			epochs.exit(local.participant);
+		}
+	}
+
+	public final boolean insert(final int key) {
+		final Local local = locals.get();
+		epochs.enter(local.participant);
+		try {
+			while (true) {
+				int curr = root;
+
+				while (arena.key(curr) != key) {
+					final int next = child(curr, key);
+					if (next == NIL)
+						break;
+					curr = next;
+				}
+
+				lock(curr);
+				try {
+					if (isMarked(curr))
+						continue;
+
+					if (arena.key(curr) == key) {
+						if (!isDeleted(curr))
+							return false;
+						// Revive a routing node left behind by a two-child removal
+						setFlag(curr, DELETED, false);
+						return true;
+					}
+
+					// Check no other thread added the child while we waited for the lock
+					if (child(curr, key) != NIL)
+						continue;
+
+					setChild(curr, key, allocate(local, key));
+					return true;
+				} finally {
+					unlock(curr);
+				}
+			}
+		} finally {
+			epochs.exit(local.participant);
+		}
+	}
+
+	private final boolean validate(final int parent, final int child) {
+		return !isMarked(parent) && !isMarked(child) && child(parent, arena.key(child)) == child;
+	}
+
+	public final boolean remove(final int key) {
+		final Local local = locals.get();
+		epochs.enter(local.participant);
+		try {
+			while (true) {
+				int gpred = NIL;
+				int pred = NIL;
+				int curr = root;
+
+				while (arena.key(curr) != key) {
+					final int next = child(curr, key);
+					if (next == NIL)
+						return false;
+					gpred = pred;
+					pred = curr;
+					curr = next;
+				}
+
+				if (isDeleted(curr))
+					return false;
+
+				lock(pred);
+				try {
+					lock(curr);
+					try {
+						if (!validate(pred, curr))
+							continue;
+
+						if (isDeleted(curr))
+							return false;
+
+						final int left = arena.left(curr);
+						final int right = arena.right(curr);
+
+						if (left != NIL && right != NIL) {
+							// Both children non-null, keep curr as a routing node
+							setFlag(curr, DELETED, true);
+							return true;
+						}
+
+						// At most one child, replace curr with it (or with null)
+						setFlag(curr, MARKED, true);
+						setChild(pred, key, (left != NIL) ? left : right);
+					} finally {
+						unlock(curr);
+					}
+				} finally {
+					unlock(pred);
+				}
+				retire(local, curr);
+
+				// pred may be a routing node that just lost one of its two children
+				if (isDeleted(pred))
+					unlinkRouting(local, gpred, pred);
+				return true;
+			}
+		} finally {
+			epochs.exit(local.participant);
+		}
+	}
+
+	// Unlinks the deleted routing node curr if it has at most one child left.
+	// Taking away a childless node costs pred a child, so a deleted pred is
+	// then looked at in turn, and so on up the tree.
+	private final void unlinkRouting(final Local local, int pred, int curr) {
+		while (true) {
+			final boolean childless;
+			lock(pred);
+			try {
+				lock(curr);
+				try {
+					if (!validate(pred, curr) || !isDeleted(curr))
+						return;
+
+					final int left = arena.left(curr);
+					final int right = arena.right(curr);
+					if (left != NIL && right != NIL)
+						return;
+
+					childless = (left == NIL && right == NIL);
+					setFlag(curr, MARKED, true);
+					setChild(pred, arena.key(curr), (left != NIL) ? left : right);
+				} finally {
+					unlock(curr);
+				}
+			} finally {
+				unlock(pred);
+			}
+			retire(local, curr);
+
+			if (!childless || !isDeleted(pred))
+				return;
+			curr = pred;
+			pred = parentOf(curr);
+			if (pred == NIL)
+				return;
+		}
+	}
+
+	// The node whose child node is, found by searching for node's key; NIL
+	// if node has left the tree
+	private final int parentOf(final int node) {
+		final int key = arena.key(node);
+		int pred = NIL;
+		int curr = root;
+		while (curr != node) {
+			if (curr == NIL || arena.key(curr) == key)
+				return NIL;
+			pred = curr;
+			curr = child(curr, key);
+		}
+		return pred;
+	}
+
+	// Returns size of the tree.
+	// NOTE: Guaranteed to be called without concurrent operations.
+	public final int size() {
+		return size(arena.right(root));
+	}
+
+	private final int size(final int node) {
+		if (node == NIL)
+			return 0;
+		return (isDeleted(node) ? 0 : 1) + size(arena.left(node)) + size(arena.right(node));
+	}
+
+	// Returns the sum of keys in the tree
+	// NOTE: Guaranteed to be called without concurrent operations.
+	public final long getKeysum() {
+		return getKeysum(arena.right(root));
+	}
+
+	private final long getKeysum(final int node) {
+		if (node == NIL)
+			return 0;
+		return (isDeleted(node) ? 0 : arena.key(node)) + getKeysum(arena.left(node)) + getKeysum(arena.right(node));
+	}
+}
@@ -0,0 +1,80 @@
+package algorithms;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The BST algorithm with its nodes stored on the heap as a struct of arrays.
+ *
+ * Each chunk of nodes is four parallel int arrays (key, left, right, state),
+ * so a node costs 16 bytes instead of a Node object's header and references,
+ * and the garbage collector sees a few large arrays instead of one object per
+ * key. Links and state go through AtomicIntegerArray for volatile access and
+ * CAS.
+ */
+public class ArrayBST extends ArenaBST {
+	static final class Arena extends NodeArena {
+		private final int[][] keys = new int[MAX_CHUNKS][];
+		private final AtomicIntegerArray[] lefts = new AtomicIntegerArray[MAX_CHUNKS];
+		private final AtomicIntegerArray[] rights = new AtomicIntegerArray[MAX_CHUNKS];
+		private final AtomicIntegerArray[] states = new AtomicIntegerArray[MAX_CHUNKS];
+
+		// Called once per block of allocations, so taking the lock every time is cheap
+		final synchronized void ensureChunk(final int chunk) {
+			if (keys[chunk] == null) {
+				keys[chunk] = new int[CHUNK_SIZE];
+				lefts[chunk] = new AtomicIntegerArray(CHUNK_SIZE);
+				rights[chunk] = new AtomicIntegerArray(CHUNK_SIZE);
+				states[chunk] = new AtomicIntegerArray(CHUNK_SIZE);
+			}
+		}
+
+		final int key(final int node) {
+			return keys[node >>> CHUNK_SHIFT][node & CHUNK_MASK];
+		}
+
+		final int left(final int node) {
+			return lefts[node >>> CHUNK_SHIFT].get(node & CHUNK_MASK);
+		}
+
+		final int right(final int node) {
+			return rights[node >>> CHUNK_SHIFT].get(node & CHUNK_MASK);
+		}
+
+		final int state(final int node) {
+			return states[node >>> CHUNK_SHIFT].get(node & CHUNK_MASK);
+		}
+
+		final void setLeft(final int node, final int child) {
+			lefts[node >>> CHUNK_SHIFT].set(node & CHUNK_MASK, child);
+		}
+
+		final void setRight(final int node, final int child) {
+			rights[node >>> CHUNK_SHIFT].set(node & CHUNK_MASK, child);
+		}
+
+		final void setState(final int node, final int state) {
+			states[node >>> CHUNK_SHIFT].set(node & CHUNK_MASK, state);
+		}
+
+		final boolean casState(final int node, final int expect, final int update) {
+			return states[node >>> CHUNK_SHIFT].compareAndSet(node & CHUNK_MASK, expect, update);
+		}
+
+		final void init(final int node, final int key) {
+			final int chunk = node >>> CHUNK_SHIFT;
+			final int i = node & CHUNK_MASK;
+			keys[chunk][i] = key;
+			lefts[chunk].lazySet(i, NIL);
+			rights[chunk].lazySet(i, NIL);
+			states[chunk].lazySet(i, 0);
+		}
+	}
+
+	public ArrayBST() {
+		super(new Arena());
+	}
+
+	public String getName() {
+		return "ArrayBST";
+	}
+}
@@ -0,0 +1,348 @@
+package algorithms;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import main.BSTInterface;
+
+import sun.misc.Unsafe;
+
+/**
+ * B+-tree with wide nodes and optimistic lock coupling (Leis, Haubenschild
+ * and Neumann, "Optimistic Lock Coupling", IEEE Data Eng. Bull. 2019).
+ *
+ * Each node holds up to fanout sorted keys (separators, in inner nodes,
+ * which have one child more), so a search touches about log_fanout(n) nodes
+ * instead of log_2(n), and scans each node's keys within a few cache lines.
+ *
+ * Each node has a version word with a lock bit. Readers take no locks: they
+ * read a node's version, read its contents, and validate that the version
+ * is unchanged before they rely on what they read, restarting from the root
+ * otherwise. Writers descend the same way and lock only the node they
+ * change, by CASing the version they validated against. A full node is split
+ * on the way down, with its parent locked too, so a split never has to
+ * propagate upwards.
+ *
+ * Removals do not merge nodes; a leaf emptied by removals stays in the tree
+ * and is refilled by later inserts into its key range.
+ */
+public class BPlusTree implements BSTInterface {
+	static final long LOCKED = 1;
+	// Added by each unlock, so every change produces a new version
+	static final long VERSION_STEP = 2;
+	static final int SPINS_BEFORE_YIELD = 64;
+
+	public static final int DEFAULT_FANOUT = 32;
+
+	private static final Unsafe UNSAFE;
+
+	static {
+		try {
+			final Field f = Unsafe.class.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			UNSAFE = (Unsafe) f.get(null);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	static final class Node {
+		volatile long version;
+		// Keys and count are plain fields, written only under the lock and
+		// read optimistically
+		int count;
+		final int[] keys;
+		// null for leaves; inner nodes have count + 1 children
+		final Node[] children;
+
+		Node(final int capacity, final boolean leaf) {
+			keys = new int[capacity];
+			children = leaf ? null : new Node[capacity + 1];
+		}
+
+		final boolean isLeaf() {
+			return children == null;
+		}
+
+		final boolean isFull() {
+			return count == keys.length;
+		}
+
+		// Index of the child whose range holds key: the number of separators <= key
+		final int childIndex(final int key) {
+			int lo = 0;
+			int hi = Math.min(count, keys.length);
+			while (lo < hi) {
+				final int mid = (lo + hi) >>> 1;
+				if (keys[mid] <= key)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			return lo;
+		}
+
+		// Position of key among the leaf's keys, or -(insertion point) - 1
+		final int find(final int key) {
+			int lo = 0;
+			int hi = Math.min(count, keys.length) - 1;
+			while (lo <= hi) {
+				final int mid = (lo + hi) >>> 1;
+				if (keys[mid] < key)
+					lo = mid + 1;
+				else if (keys[mid] > key)
+					hi = mid - 1;
+				else
+					return mid;
+			}
+			return -(lo + 1);
+		}
+	}
+
+	static final AtomicLongFieldUpdater<Node> VERSION = AtomicLongFieldUpdater.newUpdater(Node.class, "version");
+
+	private final int fanout;
+	private volatile Node root;
+
+	public BPlusTree() {
+		this(DEFAULT_FANOUT);
+	}
+
+	public BPlusTree(final int fanout) {
+		if (fanout < 4)
+			throw new IllegalArgumentException("fanout must be at least 4");
+		this.fanout = fanout;
+		root = new Node(fanout, true);
+	}
+
+	// Waits until node is unlocked and returns its version
+	private static final long stableVersion(final Node node) {
+		int spins = 0;
+		long version;
+		while (((version = node.version) & LOCKED) != 0) {
+			if (++spins > SPINS_BEFORE_YIELD)
+				Thread.yield();
+		}
+		return version;
+	}
+
+	// Whether nothing read from node since its version was read can have
+	// changed. The fence keeps those plain reads ahead of the version check.
+	private static final boolean validate(final Node node, final long version) {
+		UNSAFE.loadFence();
+		return node.version == version;
+	}
+
+	private static final boolean tryLock(final Node node, final long version) {
+		return VERSION.compareAndSet(node, version, version | LOCKED);
+	}
+
+	private static final void unlock(final Node node) {
+		node.version = (node.version & ~LOCKED) + VERSION_STEP;
+	}
+
+	public final boolean contains(final int key) {
+		restart: while (true) {
+			Node node = root;
+			long version = stableVersion(node);
+			if (node != root)
+				continue;
+
+			while (!node.isLeaf()) {
+				// The child's version must be read before node is validated, so
+				// that a split of the child after node was read shows up in it
+				final Node child = node.children[node.childIndex(key)];
+				// An inconsistent read may find a slot a split just cleared
+				if (child == null)
+					continue restart;
+				final long childVersion = stableVersion(child);
+				if (!validate(node, version))
+					continue restart;
+				node = child;
+				version = childVersion;
+			}
+
+			final boolean found = node.find(key) >= 0;
+			if (validate(node, version))
+				return found;
+		}
+	}
+
+	public final boolean insert(final int key) {
+		restart: while (true) {
+			Node parent = null;
+			long parentVersion = 0;
+			Node node = root;
+			long version = stableVersion(node);
+			if (node != root)
+				continue;
+
+			while (true) {
+				if (node.isFull()) {
+					// Split before going further, so that node's parent always has room
+					if (parent != null && !tryLock(parent, parentVersion))
+						continue restart;
+					if (!tryLock(node, version)) {
+						if (parent != null)
+							unlock(parent);
+						continue restart;
+					}
+					if (parent == null && node != root) {
+						// Another thread split the root meanwhile
+						unlock(node);
+						continue restart;
+					}
+					split(parent, node);
+					unlock(node);
+					if (parent != null)
+						unlock(parent);
+					continue restart;
+				}
+				if (node.isLeaf())
+					break;
+
+				final Node child = node.children[node.childIndex(key)];
+				// An inconsistent read may find a slot a split just cleared
+				if (child == null)
+					continue restart;
+				final long childVersion = stableVersion(child);
+				if (!validate(node, version))
+					continue restart;
+				parent = node;
+				parentVersion = version;
+				node = child;
+				version = childVersion;
+			}
+
+			// The leaf's version was read while the parent still routed key to
+			// it, and a split of the leaf would have changed that version, so
+			// the leaf still covers key if the lock succeeds
+			if (parent != null && !validate(parent, parentVersion))
+				continue;
+			if (!tryLock(node, version))
+				continue;
+			try {
+				final int pos = node.find(key);
+				if (pos >= 0)
+					return false;
+				final int at = -pos - 1;
+				System.arraycopy(node.keys, at, node.keys, at + 1, node.count - at);
+				node.keys[at] = key;
+				node.count++;
+				return true;
+			} finally {
+				unlock(node);
+			}
+		}
+	}
+
+	// Moves the upper half of node into a new right sibling, and links the
+	// sibling into parent, or into a new root if node is the root. Both nodes
+	// are locked, and parent is not full.
+	private final void split(final Node parent, final Node node) {
+		final Node right = new Node(fanout, node.isLeaf());
+		final int separator;
+		if (node.isLeaf()) {
+			final int half = node.count / 2;
+			right.count = node.count - half;
+			System.arraycopy(node.keys, half, right.keys, 0, right.count);
+			node.count = half;
+			separator = right.keys[0];
+		} else {
+			// The middle separator moves up; the keys on either side of it stay
+			final int mid = node.count / 2;
+			separator = node.keys[mid];
+			right.count = node.count - mid - 1;
+			System.arraycopy(node.keys, mid + 1, right.keys, 0, right.count);
+			System.arraycopy(node.children, mid + 1, right.children, 0, right.count + 1);
+			for (int i = mid + 1; i <= node.count; i++)
+				node.children[i] = null;
+			node.count = mid;
+		}
+
+		if (parent == null) {
+			final Node newRoot = new Node(fanout, false);
+			newRoot.keys[0] = separator;
+			newRoot.children[0] = node;
+			newRoot.children[1] = right;
+			newRoot.count = 1;
+			root = newRoot;
+			return;
+		}
+
+		final int at = parent.childIndex(separator);
+		System.arraycopy(parent.keys, at, parent.keys, at + 1, parent.count - at);
+		System.arraycopy(parent.children, at + 1, parent.children, at + 2, parent.count - at);
+		parent.keys[at] = separator;
+		parent.children[at + 1] = right;
+		parent.count++;
+	}
+
+	public final boolean remove(final int key) {
+		restart: while (true) {
+			Node node = root;
+			long version = stableVersion(node);
+			if (node != root)
+				continue;
+
+			while (!node.isLeaf()) {
+				// As in contains()
+				final Node child = node.children[node.childIndex(key)];
+				// An inconsistent read may find a slot a split just cleared
+				if (child == null)
+					continue restart;
+				final long childVersion = stableVersion(child);
+				if (!validate(node, version))
+					continue restart;
+				node = child;
+				version = childVersion;
+			}
+
+			if (node.find(key) < 0) {
+				if (validate(node, version))
+					return false;
+				continue;
+			}
+			if (!tryLock(node, version))
+				continue;
+			try {
+				final int pos = node.find(key);
+				System.arraycopy(node.keys, pos + 1, node.keys, pos, node.count - pos - 1);
+				node.count--;
+				return true;
+			} finally {
+				unlock(node);
+			}
+		}
+	}
+
+	public String getName() {
+		return "BPlusTree";
+	}
+
+	// Returns {size, sum of keys} of the subtree
+	// NOTE: Guaranteed to be called without concurrent operations.
+	private static final long[] totals(final Node node, final long[] totals) {
+		if (node.isLeaf()) {
+			totals[0] += node.count;
+			for (int i = 0; i < node.count; i++)
+				totals[1] += node.keys[i];
+		} else {
+			for (int i = 0; i <= node.count; i++)
+				totals(node.children[i], totals);
+		}
+		return totals;
+	}
+
+	// Returns size of the tree.
+	// NOTE: Guaranteed to be called without concurrent operations.
+	public final int size() {
+		return (int) totals(root, new long[2])[0];
+	}
+
+	// Returns the sum of keys in the tree
+	// NOTE: Guaranteed to be called without concurrent operations.
+	public final long getKeysum() {
+		return totals(root, new long[2])[1];
+	}
+}
@@ -1,10 +1,29 @@
 package algorithms;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 import main.BSTInterface;
+import main.Instrumented;
+import main.OrderedBSTInterface;
 
-public class BST implements BSTInterface {
+public class BST implements OrderedBSTInterface, Instrumented {
 	static enum Direction {
 		LEFT, RIGHT;
 
@@ -19,15 +38,29 @@ public class BST implements BSTInterface {
 	}
 
 	static class Node {
-		public final int key;
+		// Only rewritten when the node is recycled
+		public int key;
 		public volatile Node left;
 		public volatile Node right;
 		public volatile boolean marked;
+		public volatile boolean deleted;
+		// 1 while locked
+		volatile int lock;
 
 		Node(final int key) {
 			this.key = key;
 		}
 
+		// Makes a retired node fresh again; it is published by the child link
+		// that is set to it afterwards
+		final void reset(final int key) {
+			this.key = key;
+			left = null;
+			right = null;
+			marked = false;
+			deleted = false;
+		}
+
 		public final Node get(final Direction dir) {
 			switch (dir) {
 			case LEFT:
@@ -57,69 +90,416 @@ public class BST implements BSTInterface {
 		}
 	}
 
+	// How a thread waits for a node lock that another thread holds
+	public static enum LockPolicy {
+		// Retry as soon as the lock is seen free
+		SPIN,
+		// Spin a random number of times between attempts, up to a bound that
+		// doubles after each failed attempt
+		BACKOFF,
+		// Back off, and once the bound is at its maximum, park between attempts
+		SPIN_THEN_PARK
+	}
+
+	public static final int DEFAULT_MIN_BACKOFF = 8;
+	public static final int DEFAULT_MAX_BACKOFF = 1024;
+	static final long PARK_NANOS = 10000;
+
+	static final int LIMBO_SIZE = 256;
+	static final int RETIRES_PER_ADVANCE = 64;
+
+	// Per-thread reclamation state, when nodes are recycled
+	static final class Local {
+		final Epochs.Participant participant;
+		Node[] free = new Node[LIMBO_SIZE];
+		int nfree;
+		final Node[][] limbo = new Node[3][LIMBO_SIZE];
+		final int[] nlimbo = new int[3];
+		final long[] limboEpoch = new long[3];
+		int retires;
+		long allocated;
+		long recycled;
+
+		Local(final Epochs.Participant participant) {
+			this.participant = participant;
+		}
+	}
+
+	static final AtomicIntegerFieldUpdater<Node> LOCK = AtomicIntegerFieldUpdater.newUpdater(Node.class, "lock");
+
 	private final Node root;
-	private volatile AtomicInteger version;
+	private final LockPolicy lockPolicy;
+	private final int minBackoff;
+	private final int maxBackoff;
+	// Operations that had to start over after locking, because validation failed
+	private final LongAdder lockRetries = new LongAdder();
+	// Lock acquisitions that found the lock taken
+	private final LongAdder contendedLocks = new LongAdder();
+	// Both null unless nodes are recycled
+	private final Epochs epochs;
+	private final ThreadLocal<Local> locals;
+	private final CopyOnWriteArrayList<Local> allLocals = new CopyOnWriteArrayList<Local>();
+	// Updated at each successful insert and remove, after its linearization
+	// point. LongAdder spreads contended updates over padded cells.
+	private final LongAdder sizeCounter = new LongAdder();
+	private final LongAdder keysumCounter = new LongAdder();
 
 	public BST() {
+		this(LockPolicy.BACKOFF, DEFAULT_MIN_BACKOFF, DEFAULT_MAX_BACKOFF);
+	}
+
+	public BST(final LockPolicy lockPolicy, final int minBackoff, final int maxBackoff) {
+		this(lockPolicy, minBackoff, maxBackoff, false);
+	}
+
+	// With recycle set, unlinked nodes go through epoch-based reclamation
+	// (see Epochs) and are reused for later inserts from a per-thread free
+	// list, so a steady-state workload allocates almost no nodes.
+	public BST(final LockPolicy lockPolicy, final int minBackoff, final int maxBackoff, final boolean recycle) {
+		if (minBackoff < 1 || maxBackoff < minBackoff)
+			throw new IllegalArgumentException("need 1 <= minBackoff <= maxBackoff");
+		this.lockPolicy = lockPolicy;
+		this.minBackoff = minBackoff;
+		this.maxBackoff = maxBackoff;
 		root = new Node(Integer.MIN_VALUE);
-		version = new AtomicInteger(0);
+		if (recycle) {
+			epochs = new Epochs();
+			locals = new ThreadLocal<Local>() {
+				@Override
+				protected Local initialValue() {
+					final Local local = new Local(epochs.register());
+					allLocals.add(local);
+					return local;
+				}
+			};
+		} else {
+			epochs = null;
+			locals = null;
+		}
 	}
 
-	public final boolean contains(final int key) {
-		while (true) {
-			int curr_ver = version.get();
-			Node curr = root;
+	// Announces an operation to the epochs. Returns the thread's state, or
+	// null if nodes are not recycled.
+	private final Local enter() {
+		if (epochs == null)
+			return null;
+		final Local local = locals.get();
+		epochs.enter(local.participant);
+		return local;
+	}
 
-			while (curr != null && curr.key != key) {
-				curr = curr.get(Direction.next(curr.key, key));
-			}
-			
-			if (curr_ver != version.get())
+	private final void exit(final Local local) {
+		if (local != null)
+			epochs.exit(local.participant);
+	}
+
+	private final Node newNode(final Local local, final int key) {
+		if (local == null)
+			return new Node(key);
+		if (local.nfree == 0)
+			reclaim(local);
+		if (local.nfree == 0) {
+			local.allocated++;
+			return new Node(key);
+		}
+		final Node node = local.free[--local.nfree];
+		local.free[local.nfree] = null;
+		node.reset(key);
+		local.recycled++;
+		return node;
+	}
+
+	// Called after node has been unlinked, from within the same operation
+	private final void retire(final Local local, final Node node) {
+		if (local == null)
+			return;
+		final long e = epochs.retireEpoch();
+		final int bag = (int) (e % 3);
+		if (local.limboEpoch[bag] != e) {
+			// Whatever the bag holds is from epoch e - 3 or older
+			moveToFree(local, bag);
+			local.limboEpoch[bag] = e;
+		}
+		if (local.nlimbo[bag] == local.limbo[bag].length)
+			local.limbo[bag] = Arrays.copyOf(local.limbo[bag], 2 * local.nlimbo[bag]);
+		local.limbo[bag][local.nlimbo[bag]++] = node;
+
+		if (++local.retires % RETIRES_PER_ADVANCE == 0)
+			epochs.tryAdvance();
+	}
+
+	private final void reclaim(final Local local) {
+		boolean pending = false;
+		for (int bag = 0; bag < 3; bag++) {
+			if (local.nlimbo[bag] == 0)
+				continue;
+			if (!epochs.isSafe(local.limboEpoch[bag])) {
+				pending = true;
 				continue;
-			
-			return curr != null && !curr.marked && curr.key == key;	
+			}
+			moveToFree(local, bag);
 		}
+		if (local.nfree == 0 && pending)
+			epochs.tryAdvance();
 	}
 
-	public final boolean insert(final int key) {
-		while (true) {
-			Node curr = root;
+	private final void moveToFree(final Local local, final int bag) {
+		final int n = local.nlimbo[bag];
+		if (local.nfree + n > local.free.length)
+			local.free = Arrays.copyOf(local.free, Math.max(2 * local.free.length, local.nfree + n));
+		System.arraycopy(local.limbo[bag], 0, local.free, local.nfree, n);
+		Arrays.fill(local.limbo[bag], 0, n, null);
+		local.nfree += n;
+		local.nlimbo[bag] = 0;
+	}
 
-			while (curr.key != key) {
-				Node next = curr.get(Direction.next(curr.key, key));
-				if (next == null)
+	private final void lock(final Node node) {
+		if (LOCK.compareAndSet(node, 0, 1))
+			return;
+		contendedLocks.increment();
+
+		int bound = minBackoff;
+		while (true) {
+			switch (lockPolicy) {
+			case SPIN:
+				while (node.lock != 0) {
+				}
+				break;
+			case SPIN_THEN_PARK:
+			case BACKOFF:
+				if (lockPolicy == LockPolicy.SPIN_THEN_PARK && bound == maxBackoff) {
+					LockSupport.parkNanos(PARK_NANOS);
 					break;
-				curr = next;
+				}
+				// The volatile read keeps the JIT from removing the delay loop;
+				// lock is never negative, so the loop always runs in full
+				for (int spins = ThreadLocalRandom.current().nextInt(bound) + 1; spins > 0; spins--) {
+					if (node.lock < 0)
+						break;
+				}
+				bound = Math.min(2 * bound, maxBackoff);
+				break;
 			}
 
-			synchronized (curr) {
-				if (curr.marked)
-					continue;
+			if (node.lock == 0 && LOCK.compareAndSet(node, 0, 1))
+				return;
+		}
+	}
 
-				if (curr.key == key)
-					return false;
+	private final void unlock(final Node node) {
+		node.lock = 0;
+	}
 
-				Direction dir = Direction.next(curr.key, key);
-				// Check no other thread added the child while we waited for the lock
-				if (curr.get(dir) != null)
-					continue;
+	// Builds a perfectly balanced tree holding the given keys, which must be
+	// strictly increasing and above Integer.MIN_VALUE. The subtrees are built
+	// in parallel on the common ForkJoinPool, in O(n) work overall.
+	public static BST fromSorted(final int[] keys) {
+		return fromSorted(keys, new BST());
+	}
+
+	// As above, but builds into tree, which must be empty, so that it keeps
+	// its lock policy. Returns tree.
+	public static BST fromSorted(final int[] keys, final BST tree) {
+		if (tree.root.right != null)
+			throw new IllegalArgumentException("tree must be empty");
+		long keysum = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] == Integer.MIN_VALUE || (i > 0 && keys[i] <= keys[i - 1]))
+				throw new IllegalArgumentException("keys must be strictly increasing and above Integer.MIN_VALUE");
+			keysum += keys[i];
+		}
+
+		tree.root.right = ForkJoinPool.commonPool().invoke(new Build(keys, 0, keys.length));
+		tree.sizeCounter.add(keys.length);
+		tree.keysumCounter.add(keysum);
+		return tree;
+	}
+
+	// Snapshot file layout: MAGIC, the key count as a long, then the keys in
+	// increasing order, all little-endian
+	static final int SNAPSHOT_MAGIC = 0x42535431; // "BST1"
+	static final int SNAPSHOT_HEADER = 12;
+	// Keys mapped or written at a time
+	static final int SNAPSHOT_CHUNK = 1 << 20;
+
+	// Writes the keys in order to file, replacing its contents.
+	// NOTE: Guaranteed to be called without concurrent operations.
+	public final void save(final java.nio.file.Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			final ByteBuffer buffer = ByteBuffer.allocateDirect(4 * SNAPSHOT_CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(SNAPSHOT_MAGIC).putLong(0);
+			long count = 0;
+			final PrimitiveIterator.OfInt keys = iterator(Integer.MIN_VALUE + 1, Integer.MAX_VALUE);
+			while (keys.hasNext()) {
+				if (buffer.remaining() < 4)
+					writeFully(channel, buffer);
+				buffer.putInt(keys.nextInt());
+				count++;
+			}
+			// The iterator's bound excludes Integer.MAX_VALUE itself
+			if (contains(Integer.MAX_VALUE)) {
+				if (buffer.remaining() < 4)
+					writeFully(channel, buffer);
+				buffer.putInt(Integer.MAX_VALUE);
+				count++;
+			}
+			writeFully(channel, buffer);
+
+			buffer.putLong(count);
+			buffer.flip();
+			channel.write(buffer, 4);
+		}
+	}
 
-				// Perform extra traversal, in case we're inserting value to a recent successor
-				// node.
-				Node sanity = root;
-				while (sanity.key != key) {
-					Node next = sanity.get(Direction.next(sanity.key, key));
+	private static void writeFully(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	// Builds a tree from a file written by save(), mapping it into memory
+	public static BST load(final java.nio.file.Path file) throws IOException {
+		return load(file, new BST());
+	}
+
+	// As above, but builds into tree, which must be empty. Returns tree.
+	public static BST load(final java.nio.file.Path file, final BST tree) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, SNAPSHOT_HEADER)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			final long count = header.getLong(4);
+			if (header.getInt(0) != SNAPSHOT_MAGIC || count < 0 || count > Integer.MAX_VALUE
+					|| channel.size() != SNAPSHOT_HEADER + 4 * count)
+				throw new IOException(file + " is not a BST snapshot");
+
+			final int[] keys = new int[(int) count];
+			for (int from = 0; from < keys.length; from += SNAPSHOT_CHUNK) {
+				final int n = Math.min(SNAPSHOT_CHUNK, keys.length - from);
+				final IntBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, SNAPSHOT_HEADER + 4L * from, 4L * n)
+						.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+				chunk.get(keys, from, n);
+			}
+			return fromSorted(keys, tree);
+		}
+	}
+
+	// Ranges of sorted keys shorter than this are built by a single thread
+	static final int BUILD_GRAIN = 1 << 13;
+
+	// Builds the balanced subtree over keys[from, to)
+	static final class Build extends RecursiveTask<Node> {
+		private static final long serialVersionUID = 1L;
+		private final int[] keys;
+		private final int from;
+		private final int to;
+
+		Build(final int[] keys, final int from, final int to) {
+			this.keys = keys;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected final Node compute() {
+			if (to - from <= BUILD_GRAIN)
+				return build(keys, from, to);
+
+			final int mid = (from + to) >>> 1;
+			final Build left = new Build(keys, from, mid);
+			left.fork();
+			final Node node = new Node(keys[mid]);
+			node.right = new Build(keys, mid + 1, to).compute();
+			node.left = left.join();
+			return node;
+		}
+
+		private static Node build(final int[] keys, final int from, final int to) {
+			if (from >= to)
+				return null;
+			final int mid = (from + to) >>> 1;
+			final Node node = new Node(keys[mid]);
+			node.left = build(keys, from, mid);
+			node.right = build(keys, mid + 1, to);
+			return node;
+		}
+	}
+
+	private final void added(final int key) {
+		sizeCounter.increment();
+		keysumCounter.add(key);
+	}
+
+	private final void removed(final int key) {
+		sizeCounter.decrement();
+		keysumCounter.add(-(long) key);
+	}
+
+	// Keys never move between nodes: a removal either unlinks a node with at
+	// most one child or leaves the node in place as a deleted routing node.
+	// Hence the search path to a key only ever loses spliced-out nodes, and
+	// a single unvalidated traversal is enough to answer contains().
+	public final boolean contains(final int key) {
+		final Local local = enter();
+		try {
+			Node curr = root;
+
+			while (curr != null && curr.key != key) {
+				curr = curr.get(Direction.next(curr.key, key));
+			}
+
+			return curr != null && !curr.marked && !curr.deleted;
+		} finally {
+			exit(local);
+		}
+	}
+
+	public final boolean insert(final int key) {
+		final Local local = enter();
+		try {
+			while (true) {
+				Node curr = root;
+
+				while (curr.key != key) {
+					Node next = curr.get(Direction.next(curr.key, key));
 					if (next == null)
 						break;
-					sanity = next;
+					curr = next;
 				}
 
-				if (sanity == curr) {
-					Node node = new Node(key);
-					curr.set(dir, node);
+				lock(curr);
+				try {
+					if (curr.marked) {
+						lockRetries.increment();
+						continue;
+					}
+
+					if (curr.key == key) {
+						if (!curr.deleted)
+							return false;
+						// Revive a routing node left behind by a two-child removal
+						curr.deleted = false;
+						added(key);
+						return true;
+					}
+
+					Direction dir = Direction.next(curr.key, key);
+					// Check no other thread added the child while we waited for the lock
+					if (curr.get(dir) != null) {
+						lockRetries.increment();
+						continue;
+					}
+
+					curr.set(dir, newNode(local, key));
+					added(key);
 					return true;
+				} finally {
+					unlock(curr);
 				}
 			}
+		} finally {
+			exit(local);
 		}
 	}
 
@@ -130,128 +510,671 @@ public class BST implements BSTInterface {
 	}
 
 	public final boolean remove(final int key) {
-		while (true) {
-			Node pred = null;
-			Node curr = root;
-			int curr_ver = version.get();
-			boolean retry = false;
+		final Local local = enter();
+		try {
+			while (true) {
+				Node gpred = null;
+				Node pred = null;
+				Node curr = root;
 
-			while (curr.key != key) {
-				
-				Node next = curr.get(Direction.next(curr.key, key));
-				if (next == null) {
-					if (curr_ver == version.get()) {
+				while (curr.key != key) {
+					Node next = curr.get(Direction.next(curr.key, key));
+					if (next == null)
 						return false;
-					} else {
-						retry = true;
-						break;
+					gpred = pred;
+					pred = curr;
+					curr = next;
+				}
+
+				if (curr.deleted)
+					return false;
+
+				lock(pred);
+				try {
+					lock(curr);
+					try {
+						if (!validate(pred, curr)) {
+							lockRetries.increment();
+							continue;
+						}
+
+						if (curr.deleted)
+							return false;
+
+						final Node left = curr.left;
+						final Node right = curr.right;
+
+						if (left != null && right != null) {
+							// Both children non-null, keep curr as a routing node
+							curr.deleted = true;
+							removed(key);
+							return true;
+						}
+
+						// At most one child, replace curr with it (or with null)
+						curr.marked = true;
+						pred.set(Direction.next(pred.key, curr.key), (left != null) ? left : right);
+					} finally {
+						unlock(curr);
 					}
+				} finally {
+					unlock(pred);
 				}
-				pred = curr;
-				curr = next;
+				removed(key);
+				retire(local, curr);
+
+				// pred may be a routing node that just lost one of its two children
+				if (pred.deleted)
+					unlinkRouting(local, gpred, pred);
+				return true;
 			}
-			
-			if (retry) 
-				continue;
+		} finally {
+			exit(local);
+		}
+	}
 
-			synchronized (pred) {
-				synchronized (curr) {
-					if (!validate(pred, curr))
-						continue;
+	// Unlinks the deleted routing node curr if it has at most one child left.
+	// Taking away a childless node costs pred a child, so a deleted pred is
+	// then looked at in turn, and so on up the tree.
+	private final void unlinkRouting(final Local local, Node pred, Node curr) {
+		while (true) {
+			final boolean childless;
+			lock(pred);
+			try {
+				lock(curr);
+				try {
+					if (!validate(pred, curr) || !curr.deleted)
+						return;
 
 					final Node left = curr.left;
 					final Node right = curr.right;
-					Direction curr_dir = Direction.next(pred.key, curr.key);
-
-					if (left != null && right != null) {
-						// Both children non-null, replace node with successor
-						Node succ_pred = curr;
-						Node succ = right;
-						Node next = succ.left;
-
-						// Find successor along the left edge of the right subtree
-						while (next != null) {
-							succ_pred = succ;
-							succ = next;
-							next = next.left;
-						}
+					if (left != null && right != null)
+						return;
 
-						synchronized (succ_pred) {
-							synchronized (succ) {
-								// Make sure successor was not modifies and is still the successor
-								if (!validate(succ_pred, succ) || succ.left != null)
-									continue;
-
-								if (succ == right) {
-									// Successor is curr.right, attach curr.left subtree and replace curr.
-									right.left = left;
-									curr.marked = true;
-									pred.set(curr_dir, right);
-									return true;
-								} else {
-									// Successor is not curr.right, create a new node, replace curr with it, detach successor.
-									final Node replacement = new Node(succ.key);
-									replacement.left = left;
-									replacement.right = right;
-									curr.marked = true;
-									pred.set(curr_dir, replacement);
-									version.incrementAndGet();
-									succ.marked = true;
-									succ_pred.left = succ.right;
-									return true;
-								}
+					childless = (left == null && right == null);
+					curr.marked = true;
+					pred.set(Direction.next(pred.key, curr.key), (left != null) ? left : right);
+				} finally {
+					unlock(curr);
+				}
+			} finally {
+				unlock(pred);
+			}
+			retire(local, curr);
+
+			if (!childless || !pred.deleted)
+				return;
+			curr = pred;
+			pred = parentOf(curr);
+			if (pred == null)
+				return;
+		}
+	}
+
+	// The node whose child node is, found by searching for node's key; null
+	// if node has left the tree
+	private final Node parentOf(final Node node) {
+		Node pred = null;
+		Node curr = root;
+		while (curr != node) {
+			if (curr == null || curr.key == node.key)
+				return null;
+			pred = curr;
+			curr = curr.get(Direction.next(curr.key, node.key));
+		}
+		return pred;
+	}
+
+	// Search path kept across the keys of a batch. Each entry records a node
+	// and the open key range (lo, hi) that routed the search to it. A node's
+	// range only grows while it is in the tree, so a search for a key in the
+	// range may start at the node as long as it is not marked.
+	static final class Path {
+		Node[] nodes = new Node[32];
+		long[] lo = new long[32];
+		long[] hi = new long[32];
+		int depth;
+
+		Path(final Node root) {
+			push(root, Long.MIN_VALUE, Long.MAX_VALUE);
+		}
+
+		final void push(final Node node, final long low, final long high) {
+			if (depth == nodes.length) {
+				nodes = Arrays.copyOf(nodes, 2 * depth);
+				lo = Arrays.copyOf(lo, 2 * depth);
+				hi = Arrays.copyOf(hi, 2 * depth);
+			}
+			nodes[depth] = node;
+			lo[depth] = low;
+			hi[depth] = high;
+			depth++;
+		}
+
+		final void pop() {
+			if (depth > 1)
+				depth--;
+		}
+
+		final boolean covers(final int key) {
+			return lo[depth - 1] < key && key < hi[depth - 1];
+		}
+
+		// The node depth entries above the end of the path, or null
+		final Node parent(final int up) {
+			return (depth - 1 - up >= 0) ? nodes[depth - 1 - up] : null;
+		}
+
+		// Backs up to the deepest unmarked node whose range covers key, then
+		// searches down from it. Returns the node holding key, or the last
+		// node before a null link. The root is never marked and covers all keys.
+		final Node descend(final int key) {
+			while (depth > 1 && (nodes[depth - 1].marked || !covers(key)))
+				depth--;
+
+			Node curr = nodes[depth - 1];
+			while (curr.key != key) {
+				final Direction dir = Direction.next(curr.key, key);
+				final Node next = curr.get(dir);
+				if (next == null)
+					break;
+				if (dir == Direction.LEFT)
+					push(next, lo[depth - 1], curr.key);
+				else
+					push(next, curr.key, hi[depth - 1]);
+				curr = next;
+			}
+			return curr;
+		}
+	}
+
+	// Sorts the keys, each packed with its position in the batch
+	private static final long[] sortedBatch(final int[] keys) {
+		final long[] batch = new long[keys.length];
+		for (int i = 0; i < keys.length; i++)
+			batch[i] = ((long) keys[i] << 32) | i;
+		Arrays.sort(batch);
+		return batch;
+	}
+
+	// The batch operations below take the keys in sorted order, and each
+	// search resumes from the previous key's path instead of the root. Each
+	// key is still a separate linearizable operation.
+	public final int containsAll(final int[] keys, final boolean[] results) {
+		final Local local = enter();
+		try {
+			final Path path = new Path(root);
+			int count = 0;
+			for (long entry : sortedBatch(keys)) {
+				final int key = (int) (entry >> 32);
+				final Node curr = path.descend(key);
+				if (results[(int) entry] = (curr.key == key && !curr.marked && !curr.deleted))
+					count++;
+			}
+			return count;
+		} finally {
+			exit(local);
+		}
+	}
+
+	// Consecutive keys that end up on the same node (e.g. its left and then
+	// its right child) are inserted under a single lock acquisition.
+	public final int insertAll(final int[] keys, final boolean[] results) {
+		final Local local = enter();
+		try {
+			final long[] batch = sortedBatch(keys);
+			final Path path = new Path(root);
+			int count = 0;
+			int i = 0;
+			while (i < batch.length) {
+				final Node curr = path.descend((int) (batch[i] >> 32));
+
+				lock(curr);
+				try {
+					if (curr.marked) {
+						lockRetries.increment();
+						continue;
+					}
+
+					while (i < batch.length) {
+						final int key = (int) (batch[i] >> 32);
+						// Stop at the first key whose search would not end at curr
+						if (!path.covers(key))
+							break;
+						if (curr.key == key) {
+							if (results[(int) batch[i++]] = curr.deleted) {
+								curr.deleted = false;
+								added(key);
+								count++;
 							}
+							continue;
 						}
-					} else {
-						if (left == null && right == null) {
-							// Both null, remove curr
-							curr.marked = true;
-							pred.set(curr_dir, null);
-							return true;
-						} else {
-							// One child is null, replace curr with its non-null child
-							final Node next = (left != null) ? left : right;
-
-							synchronized (next) {
-								if (validate(curr, next)) {
-									curr.marked = true;
-									pred.set(curr_dir, next);
-									return true;
-								}
-							}
+						final Direction dir = Direction.next(curr.key, key);
+						if (curr.get(dir) != null)
+							break;
+						curr.set(dir, newNode(local, key));
+						added(key);
+						results[(int) batch[i++]] = true;
+						count++;
+					}
+				} finally {
+					unlock(curr);
+				}
+			}
+			return count;
+		} finally {
+			exit(local);
+		}
+	}
+
+	public final int removeAll(final int[] keys, final boolean[] results) {
+		final Local local = enter();
+		try {
+			final long[] batch = sortedBatch(keys);
+			final Path path = new Path(root);
+			int count = 0;
+			int i = 0;
+			while (i < batch.length) {
+				final int key = (int) (batch[i] >> 32);
+				final Node curr = path.descend(key);
+				if (curr.key != key || curr.deleted) {
+					results[(int) batch[i++]] = false;
+					continue;
+				}
+				final Node pred = path.parent(1);
+				final Node gpred = path.parent(2);
+
+				lock(pred);
+				try {
+					lock(curr);
+					try {
+						if (!validate(pred, curr)) {
+							// pred or curr is marked; back up past curr and retry
+							lockRetries.increment();
+							path.pop();
+							continue;
+						}
+
+						if (curr.deleted) {
+							results[(int) batch[i++]] = false;
+							continue;
 						}
+
+						results[(int) batch[i++]] = true;
+						count++;
+						removed(key);
+
+						final Node left = curr.left;
+						final Node right = curr.right;
+
+						if (left != null && right != null) {
+							curr.deleted = true;
+							continue;
+						}
+
+						curr.marked = true;
+						pred.set(Direction.next(pred.key, curr.key), (left != null) ? left : right);
+					} finally {
+						unlock(curr);
 					}
+				} finally {
+					unlock(pred);
 				}
+				retire(local, curr);
+
+				if (pred.deleted)
+					unlinkRouting(local, gpred, pred);
 			}
+			return count;
+		} finally {
+			exit(local);
 		}
 	}
 
+	// Removes the leftmost node while holding it and its parent, with the
+	// node's left link empty. Every smaller key would have to hang off that
+	// link, so no smaller key exists at that moment and none can be inserted.
+	public final int pollFirst() {
+		final Local local = enter();
+		try {
+			while (true) {
+				Node gpred = null;
+				Node pred = root;
+				Node curr = root.right;
+				if (curr == null) {
+					lock(root);
+					try {
+						if (root.right == null)
+							return NONE;
+					} finally {
+						unlock(root);
+					}
+					continue;
+				}
+				for (Node next = curr.left; next != null; next = curr.left) {
+					gpred = pred;
+					pred = curr;
+					curr = next;
+				}
+
+				final boolean live;
+				lock(pred);
+				try {
+					lock(curr);
+					try {
+						if (!validate(pred, curr) || curr.left != null) {
+							lockRetries.increment();
+							continue;
+						}
+						// A deleted node without a left child has at most one
+						// child; unlink it on behalf of its remover and retry
+						live = !curr.deleted;
+						curr.marked = true;
+						pred.set(Direction.next(pred.key, curr.key), curr.right);
+					} finally {
+						unlock(curr);
+					}
+				} finally {
+					unlock(pred);
+				}
+				final int key = curr.key;
+				retire(local, curr);
+				if (!live)
+					continue;
+				removed(key);
+				if (pred.deleted)
+					unlinkRouting(local, gpred, pred);
+				return key;
+			}
+		} finally {
+			exit(local);
+		}
+	}
+
+	// Walks a few keys into the tree before removing one (see
+	// OrderedBSTInterface), so the walk is one traversal instead of a search
+	// per key
+	public final int pollFirstRelaxed(final int spread) {
+		for (int attempt = 0; attempt < RELAXED_ATTEMPTS; attempt++) {
+			final int key = seek(Integer.MIN_VALUE, Direction.RIGHT, ThreadLocalRandom.current().nextInt(spread));
+			if (key == NONE)
+				break;
+			if (remove(key))
+				return key;
+		}
+		return pollFirst();
+	}
+
+	public final int first() {
+		return seek(Integer.MIN_VALUE, Direction.RIGHT, 0);
+	}
+
+	public final int last() {
+		return seek(Integer.MAX_VALUE, Direction.LEFT, 0);
+	}
+
+	public final int floor(final int key) {
+		return seek(key, Direction.LEFT, 0);
+	}
+
+	public final int ceiling(final int key) {
+		return seek(key, Direction.RIGHT, 0);
+	}
+
+	// Walks the tree in order from key in direction dir (RIGHT ascending,
+	// LEFT descending) and returns the live key skip places after the first
+	// one at or beyond key, or the last one found if there are fewer, or NONE
+	// if there are none. Weakly consistent like the range iterator, which
+	// walks the same way, and likewise only accepts keys beyond the last one.
+	private final int seek(final int key, final Direction dir, int skip) {
+		final boolean ascending = dir == Direction.RIGHT;
+		final Direction back = ascending ? Direction.LEFT : Direction.RIGHT;
+		final Local local = enter();
+		try {
+			Node[] stack = new Node[32];
+			int depth = 0;
+			int found = NONE;
+			long bound = ascending ? key - 1L : key + 1L;
+			Node node = root.right;
+			while (true) {
+				// Push node and its spine towards back, passing over nodes before key
+				while (node != null) {
+					if (ascending ? node.key < key : node.key > key) {
+						node = node.get(dir);
+						continue;
+					}
+					if (depth == stack.length)
+						stack = Arrays.copyOf(stack, 2 * depth);
+					stack[depth++] = node;
+					node = node.get(back);
+				}
+				if (depth == 0)
+					return found;
+				final Node next = stack[--depth];
+				if (!next.marked && !next.deleted && (ascending ? next.key > bound : next.key < bound)) {
+					found = next.key;
+					bound = found;
+					if (skip-- == 0)
+						return found;
+				}
+				node = next.get(dir);
+			}
+		} finally {
+			exit(local);
+		}
+	}
+
+	// Keys a range iterator collects per walk
+	static final int ITERATOR_CHUNK = 64;
+
+	// Weakly consistent iteration over [lo, hi), a chunk of keys at a time.
+	// Each chunk comes from an in-order walk from the root over the keys
+	// above the last one reported. Keys never move between nodes and an
+	// unlinked node is not modified again until it is recycled, so following
+	// whatever links a walk finds still reaches every node that stays in the
+	// tree throughout. Keys are only reported above the last one, which rules
+	// out repeats if a key is removed and re-inserted meanwhile. No node is
+	// held between walks, so the iterator does not keep nodes from being
+	// recycled, however long it lives.
+	final class RangeIterator implements PrimitiveIterator.OfInt {
+		private final int hi;
+		// The lowest key the next walk may report
+		private long from;
+		private final int[] keys = new int[ITERATOR_CHUNK];
+		private int next;
+		private int count;
+		private boolean exhausted;
+		private Node[] stack = new Node[32];
+
+		RangeIterator(final int lo, final int hi) {
+			this.hi = hi;
+			this.from = lo;
+			exhausted = lo >= hi;
+		}
+
+		// Pushes node and its left spine, skipping nodes below from
+		private final int pushLeft(Node node, int depth) {
+			while (node != null) {
+				if (node.key < from) {
+					node = node.right;
+					continue;
+				}
+				if (depth == stack.length)
+					stack = Arrays.copyOf(stack, 2 * depth);
+				stack[depth++] = node;
+				node = node.left;
+			}
+			return depth;
+		}
+
+		private final void walk() {
+			next = count = 0;
+			final Local local = enter();
+			try {
+				int depth = pushLeft(root.right, 0);
+				while (depth > 0 && count < keys.length) {
+					final Node node = stack[--depth];
+					if (node.key >= hi) {
+						// Everything left on the stack is larger still
+						depth = 0;
+						break;
+					}
+					depth = pushLeft(node.right, depth);
+					if (!node.marked && !node.deleted && node.key >= from) {
+						keys[count++] = node.key;
+						from = node.key + 1L;
+					}
+				}
+				exhausted = depth == 0;
+				Arrays.fill(stack, null);
+			} finally {
+				exit(local);
+			}
+		}
+
+		public final boolean hasNext() {
+			if (next == count && !exhausted)
+				walk();
+			return next < count;
+		}
+
+		public final int nextInt() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			return keys[next++];
+		}
+	}
+
+	public final PrimitiveIterator.OfInt iterator(final int lo, final int hi) {
+		return new RangeIterator(lo, hi);
+	}
+
 	// Return your ID #
 	public String getName() {
 		return "322081183";
 	}
 
+	public final String getStats() {
+		String stats = "lockRetries=" + lockRetries.sum() + " contendedLocks=" + contendedLocks.sum();
+		if (epochs != null) {
+			long allocated = 0;
+			long recycled = 0;
+			for (Local local : allLocals) {
+				allocated += local.allocated;
+				recycled += local.recycled;
+			}
+			stats += " newNodes=" + allocated + " recycledNodes=" + recycled;
+		}
+		return stats;
+	}
+
 	// Returns size of the tree.
-	// NOTE: Guaranteed to be called without concurrent operations.
+	// O(1) from the counter; approximate under concurrent operations and
+	// exact without them.
 	public final int size() {
-		return size(root.right);
+		return (int) sizeCounter.sum();
 	}
 
-	private final int size(final Node node) {
-		if (node == null)
-			return 0;
-		return 1 + size(node.left) + size(node.right);
+	// Sum of keys from the counter; approximate under concurrent operations
+	// and exact without them.
+	public final long getKeysumEstimate() {
+		return keysumCounter.sum();
 	}
 
 	// Returns the sum of keys in the tree
 	// NOTE: Guaranteed to be called without concurrent operations.
+	// Walks the tree rather than reading the counter, since the harness
+	// validates against this value, and checks the counters on the way.
 	public final long getKeysum() {
-		return getKeysum(root.right);
+		final Walk walk = new Walk(root.right, sizeCounter.sum() >= PARALLEL_WALK_THRESHOLD);
+		if (walk.parallel)
+			ForkJoinPool.commonPool().invoke(walk);
+		else
+			walk.compute();
+
+		if (walk.keysum != keysumCounter.sum() || walk.size != sizeCounter.sum())
+			throw new RuntimeException(String.format("tree holds %d keys summing to %d, counters say %d and %d",
+					walk.size, walk.keysum, sizeCounter.sum(), keysumCounter.sum()));
+		return walk.keysum;
 	}
 
-	private final long getKeysum(final Node node) {
-		if (node == null)
-			return 0;
-		return node.key + getKeysum(node.left) + getKeysum(node.right);
+	// Trees smaller than this are walked by the calling thread alone
+	static final long PARALLEL_WALK_THRESHOLD = 1 << 16;
+	// Fork only while fewer tasks than this are queued but not yet stolen
+	static final int MAX_SURPLUS_TASKS = 3;
+
+	// Counts and sums the live keys of a subtree with an explicit stack, so
+	// the depth of an unbalanced tree cannot overflow the thread's stack. A
+	// parallel walk hands the pending subtree nearest its start to an idle
+	// ForkJoinPool worker whenever it has another one to go on with. Forked
+	// walks that no worker took are walked here rather than joined, since
+	// join() would run them inline, one nested call per fork.
+	static final class Walk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Node start;
+		final boolean parallel;
+		long size;
+		long keysum;
+
+		Walk(final Node start, final boolean parallel) {
+			this.start = start;
+			this.parallel = parallel;
+		}
+
+		@Override
+		protected final void compute() {
+			final ArrayList<Walk> forked = new ArrayList<Walk>();
+			// Pending right subtrees are stack[bottom..depth), oldest first
+			Node[] stack = new Node[64];
+			int bottom = 0, depth = 0;
+			if (start != null)
+				stack[depth++] = start;
+
+			for (;;) {
+				while (depth > bottom) {
+					if (parallel && depth - bottom >= 2 && getSurplusQueuedTaskCount() < MAX_SURPLUS_TASKS) {
+						final Walk walk = new Walk(stack[bottom], true);
+						stack[bottom++] = null;
+						walk.fork();
+						forked.add(walk);
+					}
+					Node node = stack[--depth];
+					while (node != null) {
+						if (!node.deleted) {
+							size++;
+							keysum += node.key;
+						}
+						final Node right = node.right;
+						if (right != null) {
+							if (depth == stack.length) {
+								if (bottom > 0) {
+									System.arraycopy(stack, bottom, stack, 0, depth - bottom);
+									Arrays.fill(stack, depth - bottom, depth, null);
+									depth -= bottom;
+									bottom = 0;
+								} else {
+									stack = Arrays.copyOf(stack, 2 * depth);
+								}
+							}
+							stack[depth++] = right;
+						}
+						node = node.left;
+					}
+				}
+				bottom = depth = 0;
+
+				// Newest first, so that tryUnfork() finds each on top of the queue
+				if (forked.isEmpty())
+					break;
+				final Walk walk = forked.remove(forked.size() - 1);
+				if (walk.tryUnfork()) {
+					stack[depth++] = walk.start;
+				} else {
+					walk.join();
+					size += walk.size;
+					keysum += walk.keysum;
+				}
+			}
+		}
 	}
 }
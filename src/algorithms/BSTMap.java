@@ -0,0 +1,377 @@
+package algorithms;
+
+import java.util.Arrays;
+
+import main.BSTInterface;
+
+/**
+ * Ordered map from int keys to long values, using the same scheme as BST:
+ * keys never move between nodes, updates lock the nodes they change, and a
+ * two-child removal leaves the node behind as a deleted routing node.
+ *
+ * Values live in the nodes as primitive longs. A node's value and liveness
+ * only change under its lock, between two increments of its version, so
+ * get() reads them as a pair without locking, boxing or allocating. Absent
+ * keys are reported as NO_VALUE, which therefore cannot be stored.
+ */
+public class BSTMap {
+	public static final long NO_VALUE = Long.MIN_VALUE;
+
+	// Computes the new value of a present key; NO_VALUE removes the key
+	public interface Remapping {
+		long apply(int key, long value);
+	}
+
+	static final class Node {
+		final int key;
+		volatile long value;
+		volatile Node left;
+		volatile Node right;
+		volatile boolean marked;
+		volatile boolean deleted;
+		// Odd while the lock holder changes value, marked or deleted
+		volatile int version;
+
+		Node(final int key, final long value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		final Node child(final int target) {
+			return (key < target) ? right : left;
+		}
+
+		final void setChild(final int target, final Node node) {
+			if (key < target)
+				right = node;
+			else
+				left = node;
+		}
+	}
+
+	private final Node root = new Node(Integer.MIN_VALUE, NO_VALUE);
+
+	private static final long checkValue(final long value) {
+		if (value == NO_VALUE)
+			throw new IllegalArgumentException("NO_VALUE cannot be stored");
+		return value;
+	}
+
+	public final long get(final int key) {
+		Node curr = root;
+
+		while (curr != null && curr.key != key) {
+			curr = curr.child(key);
+		}
+		if (curr == null)
+			return NO_VALUE;
+
+		while (true) {
+			final int version = curr.version;
+			if ((version & 1) != 0)
+				continue;
+			final long value = curr.value;
+			final boolean live = !curr.marked && !curr.deleted;
+			if (curr.version == version)
+				return live ? value : NO_VALUE;
+		}
+	}
+
+	public final boolean containsKey(final int key) {
+		return get(key) != NO_VALUE;
+	}
+
+	// Returns the previous value, or NO_VALUE if the key was absent
+	public final long put(final int key, final long value) {
+		return update(key, checkValue(value), true);
+	}
+
+	// Returns the current value, or NO_VALUE if the key was absent and is now mapped to value
+	public final long putIfAbsent(final int key, final long value) {
+		return update(key, checkValue(value), false);
+	}
+
+	private final long update(final int key, final long value, final boolean replace) {
+		while (true) {
+			Node curr = root;
+
+			while (curr.key != key) {
+				final Node next = curr.child(key);
+				if (next == null)
+					break;
+				curr = next;
+			}
+
+			synchronized (curr) {
+				if (curr.marked)
+					continue;
+
+				if (curr.key == key) {
+					if (!curr.deleted) {
+						final long previous = curr.value;
+						if (replace) {
+							curr.version++;
+							curr.value = value;
+							curr.version++;
+						}
+						return previous;
+					}
+					// Revive a routing node left behind by a two-child removal
+					curr.version++;
+					curr.value = value;
+					curr.deleted = false;
+					curr.version++;
+					return NO_VALUE;
+				}
+
+				// Check no other thread added the child while we waited for the lock
+				if (curr.child(key) != null)
+					continue;
+
+				curr.setChild(key, new Node(key, value));
+				return NO_VALUE;
+			}
+		}
+	}
+
+	// Applies f to the value of key, if present, under the node's lock, so f
+	// should be short. Returns the new value, or NO_VALUE if the key was
+	// absent or f removed it.
+	public final long computeIfPresent(final int key, final Remapping f) {
+		while (true) {
+			Node pred = null;
+			Node curr = root;
+
+			while (curr.key != key) {
+				final Node next = curr.child(key);
+				if (next == null)
+					return NO_VALUE;
+				pred = curr;
+				curr = next;
+			}
+
+			final long value;
+			synchronized (curr) {
+				if (curr.marked)
+					continue;
+				if (curr.deleted)
+					return NO_VALUE;
+
+				value = f.apply(key, curr.value);
+				curr.version++;
+				if (value == NO_VALUE)
+					curr.deleted = true;
+				else
+					curr.value = value;
+				curr.version++;
+			}
+
+			// A removal here leaves a deleted node behind; unlink it unless it
+			// has two children
+			if (value == NO_VALUE)
+				unlinkRouting(pred, curr);
+			return value;
+		}
+	}
+
+	private final boolean validate(final Node parent, final Node child) {
+		return !parent.marked && !child.marked && parent.child(child.key) == child;
+	}
+
+	// Returns the removed value, or NO_VALUE if the key was absent
+	public final long remove(final int key) {
+		while (true) {
+			Node gpred = null;
+			Node pred = null;
+			Node curr = root;
+
+			while (curr.key != key) {
+				final Node next = curr.child(key);
+				if (next == null)
+					return NO_VALUE;
+				gpred = pred;
+				pred = curr;
+				curr = next;
+			}
+
+			if (curr.deleted)
+				return NO_VALUE;
+
+			final long previous;
+			synchronized (pred) {
+				synchronized (curr) {
+					if (!validate(pred, curr))
+						continue;
+
+					if (curr.deleted)
+						return NO_VALUE;
+
+					previous = curr.value;
+					final Node left = curr.left;
+					final Node right = curr.right;
+
+					if (left != null && right != null) {
+						// Both children non-null, keep curr as a routing node
+						curr.version++;
+						curr.deleted = true;
+						curr.version++;
+						return previous;
+					}
+
+					// At most one child, replace curr with it (or with null)
+					curr.version++;
+					curr.marked = true;
+					curr.version++;
+					pred.setChild(key, (left != null) ? left : right);
+				}
+			}
+
+			// pred may be a routing node that just lost one of its two children
+			if (pred.deleted)
+				unlinkRouting(gpred, pred);
+			return previous;
+		}
+	}
+
+	// Unlinks the deleted node curr if it has at most one child left. Taking
+	// away a childless node costs pred a child, so a deleted pred is then
+	// looked at in turn, and so on up the tree.
+	private final void unlinkRouting(Node pred, Node curr) {
+		while (true) {
+			final boolean childless;
+			synchronized (pred) {
+				synchronized (curr) {
+					if (!validate(pred, curr) || !curr.deleted)
+						return;
+
+					final Node left = curr.left;
+					final Node right = curr.right;
+					if (left != null && right != null)
+						return;
+
+					childless = (left == null && right == null);
+					curr.version++;
+					curr.marked = true;
+					curr.version++;
+					pred.setChild(curr.key, (left != null) ? left : right);
+				}
+			}
+
+			if (!childless || !pred.deleted)
+				return;
+			curr = pred;
+			pred = parentOf(curr);
+			if (pred == null)
+				return;
+		}
+	}
+
+	// The node whose child node is, found by searching for node's key; null
+	// if node has left the tree
+	private final Node parentOf(final Node node) {
+		Node pred = null;
+		Node curr = root;
+		while (curr != node) {
+			if (curr == null || curr.key == node.key)
+				return null;
+			pred = curr;
+			curr = curr.child(node.key);
+		}
+		return pred;
+	}
+
+	// Returns {size, sum of keys, sum of values}, walking the tree without
+	// recursion.
+	// NOTE: Guaranteed to be called without concurrent operations.
+	private final long[] totals() {
+		final long[] totals = new long[3];
+		Node[] stack = new Node[64];
+		int depth = 0;
+		if (root.right != null)
+			stack[depth++] = root.right;
+
+		while (depth > 0) {
+			final Node node = stack[--depth];
+			if (!node.deleted) {
+				totals[0]++;
+				totals[1] += node.key;
+				totals[2] += node.value;
+			}
+			if (depth + 2 > stack.length)
+				stack = Arrays.copyOf(stack, 2 * stack.length);
+			if (node.left != null)
+				stack[depth++] = node.left;
+			if (node.right != null)
+				stack[depth++] = node.right;
+		}
+		return totals;
+	}
+
+	// Returns the number of keys in the map.
+	// NOTE: Guaranteed to be called without concurrent operations.
+	public final int size() {
+		return (int) totals()[0];
+	}
+
+	// Returns the sum of keys in the map
+	// NOTE: Guaranteed to be called without concurrent operations.
+	public final long getKeysum() {
+		return totals()[1];
+	}
+
+	// Returns the sum of values in the map
+	// NOTE: Guaranteed to be called without concurrent operations.
+	public final long getValuesum() {
+		return totals()[2];
+	}
+
+	public String getName() {
+		return "BSTMap";
+	}
+
+	// The map's keys as a set, so the harness can drive and validate the map
+	// like any other tree. Keys inserted through the set are mapped to 0.
+	public final BSTInterface keySet() {
+		return new KeySet(this);
+	}
+
+	public static final class KeySet implements BSTInterface {
+		private final BSTMap map;
+
+		KeySet(final BSTMap map) {
+			this.map = map;
+		}
+
+		public final BSTMap map() {
+			return map;
+		}
+
+		public final boolean contains(final int key) {
+			return map.containsKey(key);
+		}
+
+		public final boolean insert(final int key) {
+			return map.putIfAbsent(key, 0) == NO_VALUE;
+		}
+
+		public final boolean remove(final int key) {
+			return map.remove(key) != NO_VALUE;
+		}
+
+		public String getName() {
+			return map.getName();
+		}
+
+		// Returns size of the tree.
+		// NOTE: Guaranteed to be called without concurrent operations.
+		public final int size() {
+			return map.size();
+		}
+
+		// Returns the sum of keys in the tree
+		// NOTE: Guaranteed to be called without concurrent operations.
+		public final long getKeysum() {
+			return map.getKeysum();
+		}
+	}
+}
@@ -0,0 +1,334 @@
+package algorithms;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+import main.BSTInterface;
+import main.Instrumented;
+
+/**
+ * Makes the successful updates of another tree durable by logging them to a
+ * file with group commit.
+ *
+ * Each thread appends its records to a buffer of its own. A committer thread
+ * periodically swaps out all buffers, writes them and forces the file once
+ * for the whole group. An update returns only after the group holding its
+ * record has been forced, so it costs one fsync per commit interval rather
+ * than one per operation.
+ *
+ * Records of different threads reach the file in no particular order, so
+ * each carries a sequence number taken, together with the update itself,
+ * under a lock striped by key. For any key, the record with the highest
+ * sequence number is the last update to it, and it alone determines whether
+ * the key is present. replay() relies on this and is therefore indifferent
+ * to record order and to records lost from an unfinished group. A log may
+ * be reopened to append to it: each opening starts a new session, whose
+ * number forms the high bits of its sequence numbers, so its records
+ * outrank those of earlier sessions.
+ */
+public class DurableBST implements BSTInterface, Instrumented, AutoCloseable {
+	// Record layout: key, operation, sequence number within the key's stripe
+	static final int RECORD_SIZE = 16;
+	static final int INSERT = 1;
+	static final int REMOVE = 2;
+
+	// A sequence number is the session in the high bits and a per-stripe
+	// count in the low SESSION_SHIFT bits
+	static final int SESSION_SHIFT = 40;
+
+	static final int STRIPES = 1024;
+	// Stripe sequence numbers are spaced out to keep them on separate cache lines
+	static final int SEQUENCE_SPACING = 8;
+	static final int BUFFER_SIZE = 1 << 16;
+	// How long an idle committer waits before looking again when the interval is 0
+	static final long IDLE_PARK_NANOS = 50000;
+
+	// A thread's pending records; swapped out by the committer under the lock
+	static final class LogBuffer {
+		ByteBuffer active = newBuffer(BUFFER_SIZE);
+		ByteBuffer spare = newBuffer(BUFFER_SIZE);
+	}
+
+	private final BSTInterface tree;
+	private final Path log;
+	private final FileChannel channel;
+	private final long commitIntervalMillis;
+
+	private final Object[] stripes = new Object[STRIPES];
+	private final long[] sequences = new long[STRIPES * SEQUENCE_SPACING];
+
+	private final CopyOnWriteArrayList<LogBuffer> buffers = new CopyOnWriteArrayList<LogBuffer>();
+	private final ThreadLocal<LogBuffer> localBuffer = new ThreadLocal<LogBuffer>() {
+		@Override
+		protected LogBuffer initialValue() {
+			final LogBuffer buffer = new LogBuffer();
+			buffers.add(buffer);
+			return buffer;
+		}
+	};
+
+	// Records appended from now on go into this group
+	private volatile long openGroup = 1;
+	// All groups up to this one are on disk; guarded by this
+	private long durableGroup = 0;
+	private volatile IOException failure;
+
+	private final Thread committer;
+	private volatile boolean running;
+	private long commits;
+	private long bytesWritten;
+
+	// Logs the updates of tree to the end of log, creating it if needed, in
+	// a session after any already in it. A commit interval of 0 commits as
+	// soon as records are pending.
+	public DurableBST(final BSTInterface tree, final Path log, final long commitIntervalMillis) throws IOException {
+		this.tree = tree;
+		this.log = log;
+		this.commitIntervalMillis = commitIntervalMillis;
+		this.channel = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		// Drop a partial record left by a crash, so that new records stay aligned
+		channel.truncate(channel.size() - channel.size() % RECORD_SIZE);
+		channel.position(channel.size());
+		final long session = (read(log, null) >>> SESSION_SHIFT) + 1;
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Object();
+			sequences[i * SEQUENCE_SPACING] = session << SESSION_SHIFT;
+		}
+
+		running = true;
+		committer = new Thread(new Runnable() {
+			public void run() {
+				try {
+					while (running) {
+						if (commitIntervalMillis > 0)
+							Thread.sleep(commitIntervalMillis);
+						if (!commit() && commitIntervalMillis == 0)
+							LockSupport.parkNanos(IDLE_PARK_NANOS);
+					}
+					commit();
+				} catch (IOException e) {
+					fail(e);
+				} catch (InterruptedException e) {
+					fail(new IOException("committer interrupted", e));
+				}
+			}
+		}, "DurableBST-committer");
+		committer.setDaemon(true);
+		committer.start();
+	}
+
+	static ByteBuffer newBuffer(final int capacity) {
+		return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static int stripe(final int key) {
+		int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & (STRIPES - 1);
+	}
+
+	public final boolean contains(final int key) {
+		return tree.contains(key);
+	}
+
+	public final boolean insert(final int key) {
+		return update(key, INSERT);
+	}
+
+	public final boolean remove(final int key) {
+		return update(key, REMOVE);
+	}
+
+	private final boolean update(final int key, final int op) {
+		final int stripe = stripe(key);
+		final LogBuffer buffer = localBuffer.get();
+		final long group;
+		synchronized (stripes[stripe]) {
+			if (!((op == INSERT) ? tree.insert(key) : tree.remove(key)))
+				return false;
+			final long sequence = ++sequences[stripe * SEQUENCE_SPACING];
+			synchronized (buffer) {
+				if (buffer.active.remaining() < RECORD_SIZE) {
+					final ByteBuffer larger = newBuffer(2 * buffer.active.capacity());
+					buffer.active.flip();
+					larger.put(buffer.active);
+					buffer.active = larger;
+				}
+				buffer.active.putInt(key).putInt(op).putLong(sequence);
+				// Read under the buffer's lock: if the committer has already
+				// swapped this buffer out, it has also closed the group
+				group = openGroup;
+			}
+		}
+		awaitDurable(group);
+		return true;
+	}
+
+	private final synchronized void awaitDurable(final long group) {
+		boolean interrupted = false;
+		while (durableGroup < group && failure == null) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		if (durableGroup < group)
+			throw new RuntimeException("logging to " + log + " failed", failure);
+	}
+
+	private final synchronized void fail(final IOException e) {
+		failure = e;
+		notifyAll();
+	}
+
+	// Writes and forces everything appended so far, then releases the
+	// updates waiting for it. Returns whether there was anything to write.
+	// Only called by the committer thread.
+	private final boolean commit() throws IOException {
+		final long group = openGroup;
+		openGroup = group + 1;
+
+		final ArrayList<ByteBuffer> full = new ArrayList<ByteBuffer>();
+		final ArrayList<LogBuffer> owners = new ArrayList<LogBuffer>();
+		long bytes = 0;
+		for (LogBuffer buffer : buffers) {
+			synchronized (buffer) {
+				if (buffer.active.position() == 0)
+					continue;
+				final ByteBuffer records = buffer.active;
+				buffer.active = buffer.spare;
+				buffer.spare = null;
+				records.flip();
+				bytes += records.remaining();
+				full.add(records);
+				owners.add(buffer);
+			}
+		}
+
+		if (bytes > 0) {
+			final ByteBuffer[] sources = full.toArray(new ByteBuffer[full.size()]);
+			long written = 0;
+			while (written < bytes)
+				written += channel.write(sources);
+			channel.force(false);
+		}
+
+		for (int i = 0; i < owners.size(); i++) {
+			final ByteBuffer records = full.get(i);
+			records.clear();
+			synchronized (owners.get(i)) {
+				owners.get(i).spare = records;
+			}
+		}
+
+		synchronized (this) {
+			durableGroup = group;
+			if (bytes > 0) {
+				commits++;
+				bytesWritten += bytes;
+			}
+			notifyAll();
+		}
+		return bytes > 0;
+	}
+
+	// Applies the updates logged in log to tree, which should hold the state
+	// the log started from (e.g., a tree loaded from a snapshot). A partial
+	// record at the end, left by a crash during a write, is ignored.
+	public static void replay(final Path log, final BSTInterface tree) throws IOException {
+		final Map<Integer, long[]> last = new HashMap<Integer, long[]>();
+		read(log, last);
+		for (Map.Entry<Integer, long[]> e : last.entrySet()) {
+			if (e.getValue()[1] == INSERT)
+				tree.insert(e.getKey());
+			else
+				tree.remove(e.getKey());
+		}
+	}
+
+	// Collects the last {sequence, operation} logged for each key into last,
+	// unless it is null, and returns the highest sequence number (0 if none)
+	private static long read(final Path log, final Map<Integer, long[]> last) throws IOException {
+		long highest = 0;
+		try (FileChannel in = FileChannel.open(log, StandardOpenOption.READ)) {
+			final ByteBuffer buffer = newBuffer(RECORD_SIZE * 4096);
+			while (in.read(buffer) >= 0 || buffer.position() > 0) {
+				buffer.flip();
+				if (buffer.remaining() < RECORD_SIZE && in.position() == in.size())
+					break;
+				while (buffer.remaining() >= RECORD_SIZE) {
+					final int key = buffer.getInt();
+					final int op = buffer.getInt();
+					final long sequence = buffer.getLong();
+					highest = Math.max(highest, sequence);
+					if (last == null)
+						continue;
+					final long[] seen = last.get(key);
+					if (seen == null)
+						last.put(key, new long[] { sequence, op });
+					else if (sequence > seen[0]) {
+						seen[0] = sequence;
+						seen[1] = op;
+					}
+				}
+				buffer.compact();
+			}
+		}
+		return highest;
+	}
+
+	public final Path getLog() {
+		return log;
+	}
+
+	public String getName() {
+		return "Durable-" + tree.getName();
+	}
+
+	// Returns size of the tree.
+	// NOTE: Guaranteed to be called without concurrent operations.
+	public final int size() {
+		return tree.size();
+	}
+
+	// Returns the sum of keys in the tree
+	// NOTE: Guaranteed to be called without concurrent operations.
+	public final long getKeysum() {
+		return tree.getKeysum();
+	}
+
+	public final synchronized String getStats() {
+		final String inner = (tree instanceof Instrumented) ? ((Instrumented) tree).getStats() : "";
+		return "commits=" + commits + " loggedBytes=" + bytesWritten + (inner.isEmpty() ? "" : " " + inner);
+	}
+
+	// Commits whatever is pending, stops the committer and closes the log
+	public final void close() throws IOException {
+		running = false;
+		boolean interrupted = false;
+		while (committer.isAlive()) {
+			try {
+				committer.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		channel.close();
+		BSTInterface.closeIfCloseable(tree);
+		if (failure != null)
+			throw failure;
+	}
+}
@@ -0,0 +1,63 @@
+package algorithms;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Epoch-based reclamation (Fraser, "Practical lock-freedom", 2004).
+ *
+ * Each thread announces the global epoch when it starts an operation and
+ * withdraws the announcement when it finishes. The global epoch only advances
+ * once every thread inside an operation has announced the current one. A node
+ * unlinked and retired while the global epoch was e can therefore no longer
+ * be referenced by any running operation once the global epoch reaches e + 2,
+ * and may be reused from then on.
+ *
+ * This class only keeps the epochs; callers keep their own limbo lists,
+ * tagged with the value retireEpoch() returned.
+ */
+final class Epochs {
+	static final long QUIESCENT = -1;
+
+	static final class Participant {
+		volatile long epoch = QUIESCENT;
+	}
+
+	private final AtomicLong global = new AtomicLong(0);
+	private final CopyOnWriteArrayList<Participant> participants = new CopyOnWriteArrayList<Participant>();
+
+	final Participant register() {
+		final Participant p = new Participant();
+		participants.add(p);
+		return p;
+	}
+
+	final void enter(final Participant p) {
+		p.epoch = global.get();
+	}
+
+	final void exit(final Participant p) {
+		p.epoch = QUIESCENT;
+	}
+
+	// Epoch to tag a node with when it is retired (after it has been unlinked)
+	final long retireEpoch() {
+		return global.get();
+	}
+
+	// Whether nodes retired with the given tag may be reused
+	final boolean isSafe(final long retired) {
+		return retired + 2 <= global.get();
+	}
+
+	// Advances the global epoch if no operation still runs in an older one
+	final void tryAdvance() {
+		final long e = global.get();
+		for (Participant p : participants) {
+			final long pe = p.epoch;
+			if (pe != QUIESCENT && pe != e)
+				return;
+		}
+		global.compareAndSet(e, e + 1);
+	}
+}
@@ -0,0 +1,245 @@
+package algorithms;
+
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+
+import main.BSTInterface;
+import main.Instrumented;
+
+/**
+ * Applies the operations of all threads to another tree through one thread
+ * at a time (flat combining), which can beat locking inside the tree when
+ * many threads contend for the few nodes of a small one.
+ *
+ * Each thread publishes its operation in a slot of its own and waits. Whoever
+ * gets the combiner lock collects all published operations, applies them as
+ * one batch and hands out the results, so the tree is only touched by one
+ * thread, a batch at a time, and the others wait on their own slot instead of
+ * on the tree's nodes.
+ *
+ * A batch is sorted by key. An insert and a remove of the same key in one
+ * batch eliminate each other: both succeed and the tree is left as it was,
+ * as if the remove came first when the key is present and last when it is
+ * absent. The rest goes to the tree with insertAll, removeAll and
+ * containsAll, which BST applies in key order along shared paths.
+ */
+public class FlatCombiningBST implements BSTInterface, Instrumented, AutoCloseable {
+	static final int IDLE = 0;
+	static final int PENDING = 1;
+	static final int DONE_FALSE = 2;
+	static final int DONE_TRUE = 3;
+
+	static final int CONTAINS = 0;
+	static final int INSERT = 1;
+	static final int REMOVE = 2;
+
+	// How many times a combiner looks for more operations before it lets go
+	static final int COMBINE_PASSES = 4;
+	// Waiters spin this long before yielding the core to the combiner
+	static final int SPINS_BEFORE_YIELD = 64;
+
+	// A thread's published operation; key and op are written before status
+	// becomes PENDING and are only read by the combiner after seeing it
+	static final class Slot {
+		int key;
+		int op;
+		volatile int status;
+		Slot next;
+	}
+
+	static final AtomicIntegerFieldUpdater<FlatCombiningBST> LOCK = AtomicIntegerFieldUpdater
+			.newUpdater(FlatCombiningBST.class, "lock");
+
+	private final BSTInterface tree;
+	private final AtomicReference<Slot> slots = new AtomicReference<Slot>();
+	private final ThreadLocal<Slot> slot = new ThreadLocal<Slot>() {
+		protected Slot initialValue() {
+			final Slot s = new Slot();
+			do {
+				s.next = slots.get();
+			} while (!slots.compareAndSet(s.next, s));
+			return s;
+		}
+	};
+	private volatile int lock;
+
+	// Only touched by the combiner
+	private Slot[] pending = new Slot[64];
+	private long[] order = new long[64];
+	private long batches, combinedOps, eliminatedPairs;
+
+	// tree must support concurrent scans; updates and searches only reach
+	// it from one thread at a time
+	public FlatCombiningBST(final BSTInterface tree) {
+		this.tree = tree;
+	}
+
+	private final boolean apply(final int op, final int key) {
+		final Slot s = slot.get();
+		s.key = key;
+		s.op = op;
+		s.status = PENDING;
+		for (int spins = 0;; spins++) {
+			final int status = s.status;
+			if (status != PENDING)
+				return status == DONE_TRUE;
+			if (lock == 0 && LOCK.compareAndSet(this, 0, 1)) {
+				try {
+					for (int pass = 0; pass < COMBINE_PASSES && combine(); pass++)
+						;
+				} finally {
+					lock = 0;
+				}
+			} else if (spins >= SPINS_BEFORE_YIELD) {
+				Thread.yield();
+			}
+		}
+	}
+
+	// Applies all published operations as one batch; false if there were none
+	private final boolean combine() {
+		int n = 0;
+		for (Slot s = slots.get(); s != null; s = s.next) {
+			if (s.status != PENDING)
+				continue;
+			if (n == pending.length) {
+				pending = Arrays.copyOf(pending, 2 * n);
+				order = new long[2 * n];
+			}
+			pending[n++] = s;
+		}
+		if (n == 0)
+			return false;
+		batches++;
+		combinedOps += n;
+		if (n == 1) {
+			final Slot s = pending[0];
+			pending[0] = null;
+			s.status = applyOne(s.op, s.key) ? DONE_TRUE : DONE_FALSE;
+			return true;
+		}
+
+		// Sort by key, keeping the index of each operation in the low bits
+		for (int i = 0; i < n; i++)
+			order[i] = ((long) pending[i].key << 32) | i;
+		Arrays.sort(order, 0, n);
+
+		// Pair off inserts and removes of each key, and count the rest by kind
+		final boolean[] eliminated = new boolean[n];
+		final int[] counts = new int[3];
+		for (int start = 0; start < n;) {
+			final int key = pending[(int) order[start]].key;
+			int end = start, inserts = 0, removes = 0;
+			for (; end < n && pending[(int) order[end]].key == key; end++) {
+				final int op = pending[(int) order[end]].op;
+				if (op == INSERT)
+					inserts++;
+				else if (op == REMOVE)
+					removes++;
+			}
+			int pairs = Math.min(inserts, removes), ins = pairs, rem = pairs;
+			eliminatedPairs += pairs;
+			for (int i = start; i < end; i++) {
+				final int index = (int) order[i];
+				final int op = pending[index].op;
+				if (op == INSERT && ins > 0) {
+					ins--;
+					eliminated[index] = true;
+				} else if (op == REMOVE && rem > 0) {
+					rem--;
+					eliminated[index] = true;
+				} else {
+					counts[op]++;
+				}
+			}
+			start = end;
+		}
+
+		// The rest go to the tree in key order, one batch per kind
+		final int[][] keys = { new int[counts[0]], new int[counts[1]], new int[counts[2]] };
+		final boolean[][] results = { new boolean[counts[0]], new boolean[counts[1]], new boolean[counts[2]] };
+		final int[] next = new int[3];
+		for (int i = 0; i < n; i++) {
+			final int index = (int) order[i];
+			if (!eliminated[index])
+				keys[pending[index].op][next[pending[index].op]++] = pending[index].key;
+		}
+		if (counts[CONTAINS] > 0)
+			tree.containsAll(keys[CONTAINS], results[CONTAINS]);
+		if (counts[INSERT] > 0)
+			tree.insertAll(keys[INSERT], results[INSERT]);
+		if (counts[REMOVE] > 0)
+			tree.removeAll(keys[REMOVE], results[REMOVE]);
+
+		Arrays.fill(next, 0);
+		for (int i = 0; i < n; i++) {
+			final int index = (int) order[i];
+			final Slot s = pending[index];
+			final boolean result = eliminated[index] || results[s.op][next[s.op]++];
+			pending[index] = null;
+			s.status = result ? DONE_TRUE : DONE_FALSE;
+		}
+		return true;
+	}
+
+	private final boolean applyOne(final int op, final int key) {
+		switch (op) {
+		case INSERT:
+			return tree.insert(key);
+		case REMOVE:
+			return tree.remove(key);
+		default:
+			return tree.contains(key);
+		}
+	}
+
+	public final boolean contains(final int key) {
+		return apply(CONTAINS, key);
+	}
+
+	public final boolean insert(final int key) {
+		return apply(INSERT, key);
+	}
+
+	public final boolean remove(final int key) {
+		return apply(REMOVE, key);
+	}
+
+	// Scans go straight to the tree
+	public final PrimitiveIterator.OfInt iterator(final int lo, final int hi) {
+		return tree.iterator(lo, hi);
+	}
+
+	public final void rangeScan(final int lo, final int hi, final IntConsumer action) {
+		tree.rangeScan(lo, hi, action);
+	}
+
+	public String getName() {
+		return "FC-" + tree.getName();
+	}
+
+	// Returns size of the tree.
+	// NOTE: Guaranteed to be called without concurrent operations.
+	public final int size() {
+		return tree.size();
+	}
+
+	// Returns the sum of keys in the tree
+	// NOTE: Guaranteed to be called without concurrent operations.
+	public final long getKeysum() {
+		return tree.getKeysum();
+	}
+
+	public final String getStats() {
+		final String inner = (tree instanceof Instrumented) ? ((Instrumented) tree).getStats() : "";
+		return "fcBatches=" + batches + " fcOpsPerBatch=" + String.format("%.2f", batches == 0 ? 0. : (double) combinedOps / batches)
+				+ " fcEliminatedPairs=" + eliminatedPairs + (inner.isEmpty() ? "" : " " + inner);
+	}
+
+	public final void close() {
+		BSTInterface.closeIfCloseable(tree);
+	}
+}
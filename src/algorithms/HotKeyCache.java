@@ -0,0 +1,206 @@
+package algorithms;
+
+import java.util.PrimitiveIterator;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+import main.BSTInterface;
+import main.Instrumented;
+
+/**
+ * Answers contains() for recently probed keys from a small lock-free table
+ * in front of another tree, which pays off when a few keys get most of the
+ * lookups.
+ *
+ * The table is open-addressed: a key may only sit in the PROBES slots
+ * starting at its hash. A miss asks the tree and installs the answer in a
+ * free slot of that window, or evicts one CLOCK-style: each hit sets the
+ * entry's reference bit, and eviction clears bits until it finds an entry
+ * whose bit was already clear.
+ *
+ * Keys are striped, and each stripe has a stamp counting the updates that
+ * began and ended on it. An update bumps the first count before it runs on
+ * the tree and the second after, then removes the key's entry. An entry is
+ * only filled while its stripe has no update running, records the stamp it
+ * was filled under, and is only believed while the stamp is unchanged. No
+ * update to the key can then have taken effect since the answer was read
+ * from the tree, so a hit is as good as asking the tree, even if a removal
+ * of the entry loses a race with a fill.
+ */
+public class HotKeyCache implements BSTInterface, Instrumented, AutoCloseable {
+	static final int PROBES = 8;
+	static final int STRIPES = 1024;
+	// Stripe stamps are spaced out to keep them on separate cache lines
+	static final int STAMP_SPACING = 8;
+	// An update adds BEGUN before it runs and ENDED after; the stripe is
+	// quiescent when both halves agree
+	static final long BEGUN = 1L << 32;
+	static final long ENDED = 1;
+
+	public static final int DEFAULT_CAPACITY = 1 << 12;
+
+	static final class Entry {
+		final int key;
+		final boolean present;
+		final long stamp;
+		volatile boolean referenced;
+
+		Entry(final int key, final boolean present, final long stamp) {
+			this.key = key;
+			this.present = present;
+			this.stamp = stamp;
+		}
+	}
+
+	private final BSTInterface tree;
+	private final AtomicReferenceArray<Entry> slots;
+	private final int mask;
+	private final AtomicLongArray stamps = new AtomicLongArray(STRIPES * STAMP_SPACING);
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	// capacity is rounded up to a power of two
+	public HotKeyCache(final BSTInterface tree, final int capacity) {
+		if (capacity < PROBES || capacity > 1 << 30)
+			throw new IllegalArgumentException("capacity must be in [" + PROBES + ", 2^30]");
+		this.tree = tree;
+		final int size = Integer.highestOneBit(capacity - 1) << 1;
+		this.slots = new AtomicReferenceArray<Entry>(size);
+		this.mask = size - 1;
+	}
+
+	private static int hash(final int key) {
+		final int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static int stripe(final int key) {
+		return (hash(key) >>> 7) & (STRIPES - 1);
+	}
+
+	private final long stamp(final int key) {
+		return stamps.get(stripe(key) * STAMP_SPACING);
+	}
+
+	private static boolean quiescent(final long stamp) {
+		return (stamp >>> 32) == (stamp & 0xffffffffL);
+	}
+
+	public final boolean contains(final int key) {
+		final int start = hash(key);
+		for (int i = 0; i < PROBES; i++) {
+			final Entry e = slots.get((start + i) & mask);
+			if (e != null && e.key == key && e.stamp == stamp(key)) {
+				if (!e.referenced)
+					e.referenced = true;
+				hits.increment();
+				return e.present;
+			}
+		}
+
+		misses.increment();
+		final long stamp = stamp(key);
+		final boolean present = tree.contains(key);
+		if (quiescent(stamp))
+			fill(start, new Entry(key, present, stamp));
+		return present;
+	}
+
+	// Installs e in a free or outdated slot of its window, or evicts an
+	// entry that has not been hit since the last eviction pass over it
+	private final void fill(final int start, final Entry e) {
+		for (int i = 0; i < PROBES; i++) {
+			final int slot = (start + i) & mask;
+			final Entry old = slots.get(slot);
+			if ((old == null || old.stamp != stamp(old.key)) && slots.compareAndSet(slot, old, e))
+				return;
+		}
+		// Two passes: the first may only clear reference bits
+		for (int i = 0; i < 2 * PROBES; i++) {
+			final int slot = (start + i % PROBES) & mask;
+			final Entry old = slots.get(slot);
+			if (old == null)
+				continue;
+			if (old.referenced) {
+				old.referenced = false;
+			} else if (slots.compareAndSet(slot, old, e)) {
+				evictions.increment();
+				return;
+			}
+		}
+	}
+
+	// Removes key's entry so it does not keep a slot; correctness only
+	// relies on the stamp having changed
+	private final void invalidate(final int key) {
+		final int start = hash(key);
+		for (int i = 0; i < PROBES; i++) {
+			final int slot = (start + i) & mask;
+			final Entry e = slots.get(slot);
+			if (e != null && e.key == key && slots.compareAndSet(slot, e, null))
+				invalidations.increment();
+		}
+	}
+
+	public final boolean insert(final int key) {
+		final int index = stripe(key) * STAMP_SPACING;
+		stamps.getAndAdd(index, BEGUN);
+		try {
+			return tree.insert(key);
+		} finally {
+			stamps.getAndAdd(index, ENDED);
+			invalidate(key);
+		}
+	}
+
+	public final boolean remove(final int key) {
+		final int index = stripe(key) * STAMP_SPACING;
+		stamps.getAndAdd(index, BEGUN);
+		try {
+			return tree.remove(key);
+		} finally {
+			stamps.getAndAdd(index, ENDED);
+			invalidate(key);
+		}
+	}
+
+	// Scans do not go through the cache
+	public final PrimitiveIterator.OfInt iterator(final int lo, final int hi) {
+		return tree.iterator(lo, hi);
+	}
+
+	public final void rangeScan(final int lo, final int hi, final IntConsumer action) {
+		tree.rangeScan(lo, hi, action);
+	}
+
+	public String getName() {
+		return "Cached-" + tree.getName();
+	}
+
+	// Returns size of the tree.
+	// NOTE: Guaranteed to be called without concurrent operations.
+	public final int size() {
+		return tree.size();
+	}
+
+	// Returns the sum of keys in the tree
+	// NOTE: Guaranteed to be called without concurrent operations.
+	public final long getKeysum() {
+		return tree.getKeysum();
+	}
+
+	public final String getStats() {
+		final String inner = (tree instanceof Instrumented) ? ((Instrumented) tree).getStats() : "";
+		return "cacheHits=" + hits.sum() + " cacheMisses=" + misses.sum() + " cacheInvalidations=" + invalidations.sum()
+				+ " cacheEvictions=" + evictions.sum() + (inner.isEmpty() ? "" : " " + inner);
+	}
+
+	public final void close() {
+		BSTInterface.closeIfCloseable(tree);
+	}
+}
@@ -0,0 +1,212 @@
+package algorithms;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import main.BSTInterface;
+
+/**
+ * Non-blocking leaf-oriented k-ary search tree, after Brown and Helga,
+ * "Non-blocking k-ary Search Trees" (OPODIS 2011).
+ *
+ * Internal nodes hold k - 1 routing keys and k child links; leaves hold up
+ * to k - 1 keys in an immutable sorted array. An update builds a new leaf
+ * (or, when a full leaf receives another key, a new internal node with k
+ * single-key leaves) and swings the parent's child link to it with one CAS.
+ * A failed CAS means another update to the same leaf succeeded, so the tree
+ * is lock-free, and contains() reads one leaf and is wait-free.
+ *
+ * Unlike the paper, internal nodes are never pruned: a leaf emptied by
+ * removals stays in place and is refilled by later inserts into its range.
+ * Internal nodes therefore never leave the tree, which is what lets every
+ * update be a single CAS with no flagging or helping. The number of internal
+ * nodes is bounded by the number of distinct keys ever inserted.
+ */
+public class KaryTree implements BSTInterface {
+	public static final int DEFAULT_K = 8;
+
+	static abstract class Node {
+	}
+
+	static final class Leaf extends Node {
+		final int[] keys;
+
+		Leaf(final int[] keys) {
+			this.keys = keys;
+		}
+
+		final boolean has(final int key) {
+			return Arrays.binarySearch(keys, key) >= 0;
+		}
+
+		// A copy with key added; key must be absent
+		final Leaf with(final int key) {
+			final int at = -Arrays.binarySearch(keys, key) - 1;
+			final int[] copy = new int[keys.length + 1];
+			System.arraycopy(keys, 0, copy, 0, at);
+			copy[at] = key;
+			System.arraycopy(keys, at, copy, at + 1, keys.length - at);
+			return new Leaf(copy);
+		}
+
+		// A copy with key removed; key must be present
+		final Leaf without(final int key) {
+			final int at = Arrays.binarySearch(keys, key);
+			final int[] copy = new int[keys.length - 1];
+			System.arraycopy(keys, 0, copy, 0, at);
+			System.arraycopy(keys, at + 1, copy, at, copy.length - at);
+			return new Leaf(copy);
+		}
+	}
+
+	static final class Internal extends Node {
+		// Child i holds the keys in [keys[i - 1], keys[i])
+		final int[] keys;
+		private final AtomicReferenceArray<Node> children;
+
+		Internal(final int[] keys, final Node[] children) {
+			this.keys = keys;
+			this.children = new AtomicReferenceArray<Node>(children);
+		}
+
+		// The number of routing keys <= key
+		final int childIndex(final int key) {
+			int i = 0;
+			while (i < keys.length && keys[i] <= key)
+				i++;
+			return i;
+		}
+
+		final Node child(final int i) {
+			return children.get(i);
+		}
+
+		final boolean casChild(final int i, final Node expect, final Node update) {
+			return children.compareAndSet(i, expect, update);
+		}
+	}
+
+	static final Leaf EMPTY = new Leaf(new int[0]);
+
+	private final int k;
+	// Never replaced. Its routing keys are all Integer.MAX_VALUE, so every
+	// other key goes to its first child.
+	private final Internal root;
+
+	public KaryTree() {
+		this(DEFAULT_K);
+	}
+
+	public KaryTree(final int k) {
+		if (k < 2)
+			throw new IllegalArgumentException("k must be at least 2");
+		this.k = k;
+		final int[] keys = new int[k - 1];
+		Arrays.fill(keys, Integer.MAX_VALUE);
+		final Node[] children = new Node[k];
+		Arrays.fill(children, EMPTY);
+		root = new Internal(keys, children);
+	}
+
+	// Replaces a full leaf that is to receive key by an internal node over
+	// k leaves with one key each
+	private final Internal sprout(final Leaf leaf, final int key) {
+		final int[] all = leaf.with(key).keys;
+		final Node[] children = new Node[k];
+		for (int i = 0; i < k; i++)
+			children[i] = new Leaf(new int[] { all[i] });
+		return new Internal(Arrays.copyOfRange(all, 1, k), children);
+	}
+
+	public final boolean contains(final int key) {
+		Node node = root;
+		while (node instanceof Internal) {
+			final Internal internal = (Internal) node;
+			node = internal.child(internal.childIndex(key));
+		}
+		return ((Leaf) node).has(key);
+	}
+
+	public final boolean insert(final int key) {
+		while (true) {
+			Internal parent = root;
+			int index = parent.childIndex(key);
+			Node node = parent.child(index);
+			while (node instanceof Internal) {
+				parent = (Internal) node;
+				index = parent.childIndex(key);
+				node = parent.child(index);
+			}
+
+			final Leaf leaf = (Leaf) node;
+			if (leaf.has(key))
+				return false;
+			final Node replacement = (leaf.keys.length < k - 1) ? leaf.with(key) : sprout(leaf, key);
+			if (parent.casChild(index, leaf, replacement))
+				return true;
+		}
+	}
+
+	public final boolean remove(final int key) {
+		while (true) {
+			Internal parent = root;
+			int index = parent.childIndex(key);
+			Node node = parent.child(index);
+			while (node instanceof Internal) {
+				parent = (Internal) node;
+				index = parent.childIndex(key);
+				node = parent.child(index);
+			}
+
+			final Leaf leaf = (Leaf) node;
+			if (!leaf.has(key))
+				return false;
+			final Leaf replacement = (leaf.keys.length == 1) ? EMPTY : leaf.without(key);
+			if (parent.casChild(index, leaf, replacement))
+				return true;
+		}
+	}
+
+	public String getName() {
+		return "KaryTree" + k;
+	}
+
+	// Returns {size, sum of keys}, walking the tree without recursion, since
+	// sorted inserts can make it deep.
+	// NOTE: Guaranteed to be called without concurrent operations.
+	private final long[] totals() {
+		final long[] totals = new long[2];
+		Node[] stack = new Node[64];
+		int depth = 0;
+		stack[depth++] = root;
+
+		while (depth > 0) {
+			final Node node = stack[--depth];
+			if (node instanceof Leaf) {
+				for (int key : ((Leaf) node).keys) {
+					totals[0]++;
+					totals[1] += key;
+				}
+				continue;
+			}
+			final Internal internal = (Internal) node;
+			if (depth + k > stack.length)
+				stack = Arrays.copyOf(stack, 2 * stack.length + k);
+			for (int i = 0; i < k; i++)
+				stack[depth++] = internal.child(i);
+		}
+		return totals;
+	}
+
+	// Returns size of the tree.
+	// NOTE: Guaranteed to be called without concurrent operations.
+	public final int size() {
+		return (int) totals()[0];
+	}
+
+	// Returns the sum of keys in the tree
+	// NOTE: Guaranteed to be called without concurrent operations.
+	public final long getKeysum() {
+		return totals()[1];
+	}
+}
@@ -0,0 +1,301 @@
+package algorithms;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import main.BSTInterface;
+
+/**
+ * Non-blocking external (leaf-oriented) BST, following Ellen, Fatourou, Ruppert
+ * and van Breugel, "Non-blocking Binary Search Trees" (PODC 2010).
+ *
+ * Keys live in leaves; internal nodes only route. An update first flags the
+ * node(s) whose child pointer it is about to change by CASing an Update record
+ * into their update field, then performs a single child CAS. Any thread that
+ * runs into a flagged node helps the pending operation to completion instead
+ * of waiting for it, so a descheduled thread never blocks the others.
+ *
+ * Integer.MAX_VALUE - 1 and Integer.MAX_VALUE are reserved as sentinel keys.
+ */
+public class LockFreeBST implements BSTInterface {
+	static final int CLEAN = 0;
+	static final int IFLAG = 1;
+	static final int DFLAG = 2;
+	static final int MARK = 3;
+
+	static final int INF1 = Integer.MAX_VALUE - 1;
+	static final int INF2 = Integer.MAX_VALUE;
+
+	static class Node {
+		public final int key;
+
+		Node(final int key) {
+			this.key = key;
+		}
+	}
+
+	static final class Leaf extends Node {
+		Leaf(final int key) {
+			super(key);
+		}
+	}
+
+	static final class Internal extends Node {
+		public volatile Node left;
+		public volatile Node right;
+		public volatile Update update;
+
+		Internal(final int key, final Node left, final Node right) {
+			super(key);
+			this.left = left;
+			this.right = right;
+			this.update = new Update(CLEAN, null);
+		}
+
+		public final boolean casLeft(final Node expect, final Node node) {
+			return leftUpdater.compareAndSet(this, expect, node);
+		}
+
+		public final boolean casRight(final Node expect, final Node node) {
+			return rightUpdater.compareAndSet(this, expect, node);
+		}
+
+		public final boolean casUpdate(final Update expect, final Update update) {
+			return updateUpdater.compareAndSet(this, expect, update);
+		}
+	}
+
+	// Immutable (state, info) pair. A fresh record is installed by every
+	// transition, so a CAS expecting an old record can never succeed after the
+	// node has been flagged and cleaned in between (no ABA).
+	static final class Update {
+		public final int state;
+		public final Info info;
+
+		Update(final int state, final Info info) {
+			this.state = state;
+			this.info = info;
+		}
+	}
+
+	static abstract class Info {
+	}
+
+	static final class IInfo extends Info {
+		public final Internal p;
+		public final Leaf l;
+		public final Internal newInternal;
+
+		IInfo(final Internal p, final Leaf l, final Internal newInternal) {
+			this.p = p;
+			this.l = l;
+			this.newInternal = newInternal;
+		}
+	}
+
+	static final class DInfo extends Info {
+		public final Internal gp;
+		public final Internal p;
+		public final Leaf l;
+		public final Update pupdate;
+
+		DInfo(final Internal gp, final Internal p, final Leaf l, final Update pupdate) {
+			this.gp = gp;
+			this.p = p;
+			this.l = l;
+			this.pupdate = pupdate;
+		}
+	}
+
+	private static final AtomicReferenceFieldUpdater<Internal, Node> leftUpdater =
+			AtomicReferenceFieldUpdater.newUpdater(Internal.class, Node.class, "left");
+	private static final AtomicReferenceFieldUpdater<Internal, Node> rightUpdater =
+			AtomicReferenceFieldUpdater.newUpdater(Internal.class, Node.class, "right");
+	private static final AtomicReferenceFieldUpdater<Internal, Update> updateUpdater =
+			AtomicReferenceFieldUpdater.newUpdater(Internal.class, Update.class, "update");
+
+	private final Internal root;
+
+	public LockFreeBST() {
+		root = new Internal(INF2, new Leaf(INF1), new Leaf(INF2));
+	}
+
+	private static final void checkKey(final int key) {
+		if (key >= INF1)
+			throw new IllegalArgumentException("keys from Integer.MAX_VALUE - 1 up are reserved");
+	}
+
+	public final boolean contains(final int key) {
+		checkKey(key);
+		Node curr = root;
+		while (curr instanceof Internal) {
+			final Internal p = (Internal) curr;
+			curr = (key < p.key) ? p.left : p.right;
+		}
+		return curr.key == key;
+	}
+
+	public final boolean insert(final int key) {
+		checkKey(key);
+		while (true) {
+			Internal p = null;
+			Update pupdate = null;
+			Node l = root;
+
+			while (l instanceof Internal) {
+				p = (Internal) l;
+				pupdate = p.update;
+				l = (key < p.key) ? p.left : p.right;
+			}
+
+			if (l.key == key)
+				return false;
+
+			if (pupdate.state != CLEAN) {
+				help(pupdate);
+				continue;
+			}
+
+			// The replaced leaf is copied rather than reused, so a stale helper
+			// can never swing p's child pointer back to it.
+			final Leaf newLeaf = new Leaf(key);
+			final Leaf newSibling = new Leaf(l.key);
+			final Internal newInternal = (key < l.key)
+					? new Internal(l.key, newLeaf, newSibling)
+					: new Internal(key, newSibling, newLeaf);
+			final IInfo op = new IInfo(p, (Leaf) l, newInternal);
+
+			if (p.casUpdate(pupdate, new Update(IFLAG, op))) {
+				helpInsert(op);
+				return true;
+			}
+			help(p.update);
+		}
+	}
+
+	public final boolean remove(final int key) {
+		checkKey(key);
+		while (true) {
+			Internal gp = null;
+			Internal p = null;
+			Update gpupdate = null;
+			Update pupdate = null;
+			Node l = root;
+
+			while (l instanceof Internal) {
+				gp = p;
+				gpupdate = pupdate;
+				p = (Internal) l;
+				pupdate = p.update;
+				l = (key < p.key) ? p.left : p.right;
+			}
+
+			if (l.key != key)
+				return false;
+
+			if (gpupdate.state != CLEAN) {
+				help(gpupdate);
+				continue;
+			}
+			if (pupdate.state != CLEAN) {
+				help(pupdate);
+				continue;
+			}
+
+			final DInfo op = new DInfo(gp, p, (Leaf) l, pupdate);
+
+			if (gp.casUpdate(gpupdate, new Update(DFLAG, op))) {
+				if (helpDelete(op))
+					return true;
+			} else {
+				help(gp.update);
+			}
+		}
+	}
+
+	private final void help(final Update update) {
+		switch (update.state) {
+		case IFLAG:
+			helpInsert((IInfo) update.info);
+			break;
+		case MARK:
+			helpMarked((DInfo) update.info);
+			break;
+		case DFLAG:
+			helpDelete((DInfo) update.info);
+			break;
+		default:
+			break;
+		}
+	}
+
+	private final void helpInsert(final IInfo op) {
+		casChild(op.p, op.l, op.newInternal);
+		unflag(op.p, op);
+	}
+
+	private final boolean helpDelete(final DInfo op) {
+		final Internal p = op.p;
+		if (p.update == op.pupdate)
+			p.casUpdate(op.pupdate, new Update(MARK, op));
+
+		final Update pupdate = p.update;
+		if (pupdate.state == MARK && pupdate.info == op) {
+			helpMarked(op);
+			return true;
+		}
+
+		// p changed since the delete was planned: help whoever owns it, then
+		// back off by removing our flag from gp.
+		help(pupdate);
+		unflag(op.gp, op);
+		return false;
+	}
+
+	private final void helpMarked(final DInfo op) {
+		final Internal p = op.p;
+		final Node other = (p.right == op.l) ? p.left : p.right;
+		casChild(op.gp, p, other);
+		unflag(op.gp, op);
+	}
+
+	private final void unflag(final Internal node, final Info op) {
+		final Update update = node.update;
+		if (update.info == op && (update.state == IFLAG || update.state == DFLAG))
+			node.casUpdate(update, new Update(CLEAN, op));
+	}
+
+	private final void casChild(final Internal parent, final Node old, final Node node) {
+		if (node.key < parent.key)
+			parent.casLeft(old, node);
+		else
+			parent.casRight(old, node);
+	}
+
+	public String getName() {
+		return "LockFreeBST";
+	}
+
+	// Returns size of the tree.
+	// NOTE: Guaranteed to be called without concurrent operations.
+	public final int size() {
+		return size(root);
+	}
+
+	private final int size(final Node node) {
+		if (node instanceof Internal)
+			return size(((Internal) node).left) + size(((Internal) node).right);
+		return (node.key < INF1) ? 1 : 0;
+	}
+
+	// Returns the sum of keys in the tree
+	// NOTE: Guaranteed to be called without concurrent operations.
+	public final long getKeysum() {
+		return getKeysum(root);
+	}
+
+	private final long getKeysum(final Node node) {
+		if (node instanceof Internal)
+			return getKeysum(((Internal) node).left) + getKeysum(((Internal) node).right);
+		return (node.key < INF1) ? node.key : 0;
+	}
+}
@@ -0,0 +1,233 @@
+package algorithms;
+
+import java.util.Arrays;
+
+import main.BSTInterface;
+import main.LongBSTInterface;
+
+/**
+ * The BST algorithm over 64-bit keys. Keys are primitive longs throughout,
+ * so nothing is boxed. The int operations of BSTInterface widen their key,
+ * which lets the tree run under any workload.
+ *
+ * Long.MIN_VALUE is reserved for the root sentinel.
+ */
+public class LongBST implements LongBSTInterface, BSTInterface {
+	static final class Node {
+		final long key;
+		volatile Node left;
+		volatile Node right;
+		volatile boolean marked;
+		volatile boolean deleted;
+
+		Node(final long key) {
+			this.key = key;
+		}
+
+		final Node child(final long target) {
+			return (key < target) ? right : left;
+		}
+
+		final void setChild(final long target, final Node node) {
+			if (key < target)
+				right = node;
+			else
+				left = node;
+		}
+	}
+
+	private final Node root = new Node(Long.MIN_VALUE);
+
+	public final boolean contains(final long key) {
+		Node curr = root;
+
+		while (curr != null && curr.key != key) {
+			curr = curr.child(key);
+		}
+
+		return curr != null && !curr.marked && !curr.deleted;
+	}
+
+	public final boolean insert(final long key) {
+		while (true) {
+			Node curr = root;
+
+			while (curr.key != key) {
+				final Node next = curr.child(key);
+				if (next == null)
+					break;
+				curr = next;
+			}
+
+			synchronized (curr) {
+				if (curr.marked)
+					continue;
+
+				if (curr.key == key) {
+					if (!curr.deleted)
+						return false;
+					// Revive a routing node left behind by a two-child removal
+					curr.deleted = false;
+					return true;
+				}
+
+				// Check no other thread added the child while we waited for the lock
+				if (curr.child(key) != null)
+					continue;
+
+				curr.setChild(key, new Node(key));
+				return true;
+			}
+		}
+	}
+
+	private final boolean validate(final Node parent, final Node child) {
+		return !parent.marked && !child.marked && parent.child(child.key) == child;
+	}
+
+	public final boolean remove(final long key) {
+		while (true) {
+			Node gpred = null;
+			Node pred = null;
+			Node curr = root;
+
+			while (curr.key != key) {
+				final Node next = curr.child(key);
+				if (next == null)
+					return false;
+				gpred = pred;
+				pred = curr;
+				curr = next;
+			}
+
+			if (curr.deleted)
+				return false;
+
+			synchronized (pred) {
+				synchronized (curr) {
+					if (!validate(pred, curr))
+						continue;
+
+					if (curr.deleted)
+						return false;
+
+					final Node left = curr.left;
+					final Node right = curr.right;
+
+					if (left != null && right != null) {
+						// Both children non-null, keep curr as a routing node
+						curr.deleted = true;
+						return true;
+					}
+
+					// At most one child, replace curr with it (or with null)
+					curr.marked = true;
+					pred.setChild(key, (left != null) ? left : right);
+				}
+			}
+
+			// pred may be a routing node that just lost one of its two children
+			if (pred.deleted)
+				unlinkRouting(gpred, pred);
+			return true;
+		}
+	}
+
+	// Unlinks the deleted routing node curr if it has at most one child left.
+	// Taking away a childless node costs pred a child, so a deleted pred is
+	// then looked at in turn, and so on up the tree.
+	private final void unlinkRouting(Node pred, Node curr) {
+		while (true) {
+			final boolean childless;
+			synchronized (pred) {
+				synchronized (curr) {
+					if (!validate(pred, curr) || !curr.deleted)
+						return;
+
+					final Node left = curr.left;
+					final Node right = curr.right;
+					if (left != null && right != null)
+						return;
+
+					childless = (left == null && right == null);
+					curr.marked = true;
+					pred.setChild(curr.key, (left != null) ? left : right);
+				}
+			}
+
+			if (!childless || !pred.deleted)
+				return;
+			curr = pred;
+			pred = parentOf(curr);
+			if (pred == null)
+				return;
+		}
+	}
+
+	// The node whose child node is, found by searching for node's key; null
+	// if node has left the tree
+	private final Node parentOf(final Node node) {
+		Node pred = null;
+		Node curr = root;
+		while (curr != node) {
+			if (curr == null || curr.key == node.key)
+				return null;
+			pred = curr;
+			curr = curr.child(node.key);
+		}
+		return pred;
+	}
+
+	public final boolean contains(final int key) {
+		return contains((long) key);
+	}
+
+	public final boolean insert(final int key) {
+		return insert((long) key);
+	}
+
+	public final boolean remove(final int key) {
+		return remove((long) key);
+	}
+
+	public String getName() {
+		return "LongBST";
+	}
+
+	// Returns {size, sum of keys}, walking the tree without recursion.
+	// NOTE: Guaranteed to be called without concurrent operations.
+	private final long[] totals() {
+		final long[] totals = new long[2];
+		Node[] stack = new Node[64];
+		int depth = 0;
+		if (root.right != null)
+			stack[depth++] = root.right;
+
+		while (depth > 0) {
+			final Node node = stack[--depth];
+			if (!node.deleted) {
+				totals[0]++;
+				totals[1] += node.key;
+			}
+			if (depth + 2 > stack.length)
+				stack = Arrays.copyOf(stack, 2 * stack.length);
+			if (node.left != null)
+				stack[depth++] = node.left;
+			if (node.right != null)
+				stack[depth++] = node.right;
+		}
+		return totals;
+	}
+
+	// Returns size of the tree.
+	// NOTE: Guaranteed to be called without concurrent operations.
+	public final int size() {
+		return (int) totals()[0];
+	}
+
+	// Returns the sum of keys in the tree
+	// NOTE: Guaranteed to be called without concurrent operations.
+	public final long getKeysum() {
+		return totals()[1];
+	}
+}
@@ -0,0 +1,40 @@
+package algorithms;
+
+/**
+ * Storage for the nodes of an ArenaBST. A node is an int index (0 is null)
+ * naming four int fields: key, left, right and a state word. Storage is
+ * organised in chunks of CHUNK_SIZE nodes that are created on demand.
+ *
+ * Child links and the state word are read and written with volatile
+ * semantics. The key is written with a plain store before the node is
+ * published through a child link, and never changes while the node is
+ * reachable.
+ */
+abstract class NodeArena {
+	static final int CHUNK_SHIFT = 20;
+	static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	static final int MAX_CHUNKS = 1 << (31 - CHUNK_SHIFT);
+
+	// Makes the nodes of the given chunk usable. Thread-safe and idempotent.
+	abstract void ensureChunk(int chunk);
+
+	abstract int key(int node);
+
+	abstract int left(int node);
+
+	abstract int right(int node);
+
+	abstract int state(int node);
+
+	abstract void setLeft(int node, int child);
+
+	abstract void setRight(int node, int child);
+
+	abstract void setState(int node, int state);
+
+	abstract boolean casState(int node, int expect, int update);
+
+	// Resets all fields of a freshly allocated or recycled node
+	abstract void init(int node, int key);
+}
@@ -0,0 +1,107 @@
+package algorithms;
+
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+import sun.misc.Unsafe;
+
+/**
+ * The BST algorithm with its nodes stored outside the Java heap.
+ *
+ * Nodes are 16-byte records (key, left, right, state) in chunks of direct
+ * ByteBuffers, accessed through Unsafe since the build targets Java 8. The
+ * chunks never shrink; their memory is released when the tree becomes
+ * garbage, like any other direct buffer.
+ */
+public class OffHeapBST extends ArenaBST {
+	static final class Arena extends NodeArena {
+		static final int NODE_SHIFT = 4;
+		static final long KEY = 0;
+		static final long LEFT = 4;
+		static final long RIGHT = 8;
+		static final long STATE = 12;
+
+		private static final Unsafe UNSAFE;
+		private static final long ADDRESS_OFFSET;
+
+		static {
+			try {
+				final Field f = Unsafe.class.getDeclaredField("theUnsafe");
+				f.setAccessible(true);
+				UNSAFE = (Unsafe) f.get(null);
+				ADDRESS_OFFSET = UNSAFE.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		// chunks keeps the buffers reachable; bases caches their addresses
+		private final ByteBuffer[] chunks = new ByteBuffer[MAX_CHUNKS];
+		private final long[] bases = new long[MAX_CHUNKS];
+
+		private final long addr(final int node) {
+			return bases[node >>> CHUNK_SHIFT] + ((long) (node & CHUNK_MASK) << NODE_SHIFT);
+		}
+
+		final void ensureChunk(final int chunk) {
+			if (bases[chunk] != 0)
+				return;
+			synchronized (chunks) {
+				if (chunks[chunk] == null) {
+					final ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE << NODE_SHIFT);
+					chunks[chunk] = buffer;
+					bases[chunk] = UNSAFE.getLong(buffer, ADDRESS_OFFSET);
+				}
+			}
+		}
+
+		final int key(final int node) {
+			return UNSAFE.getInt(addr(node) + KEY);
+		}
+
+		final int left(final int node) {
+			return UNSAFE.getIntVolatile(null, addr(node) + LEFT);
+		}
+
+		final int right(final int node) {
+			return UNSAFE.getIntVolatile(null, addr(node) + RIGHT);
+		}
+
+		final int state(final int node) {
+			return UNSAFE.getIntVolatile(null, addr(node) + STATE);
+		}
+
+		final void setLeft(final int node, final int child) {
+			UNSAFE.putIntVolatile(null, addr(node) + LEFT, child);
+		}
+
+		final void setRight(final int node, final int child) {
+			UNSAFE.putIntVolatile(null, addr(node) + RIGHT, child);
+		}
+
+		final void setState(final int node, final int state) {
+			UNSAFE.putIntVolatile(null, addr(node) + STATE, state);
+		}
+
+		final boolean casState(final int node, final int expect, final int update) {
+			return UNSAFE.compareAndSwapInt(null, addr(node) + STATE, expect, update);
+		}
+
+		final void init(final int node, final int key) {
+			final long a = addr(node);
+			UNSAFE.putInt(a + KEY, key);
+			UNSAFE.putInt(a + LEFT, NIL);
+			UNSAFE.putInt(a + RIGHT, NIL);
+			UNSAFE.putInt(a + STATE, 0);
+		}
+	}
+
+	public OffHeapBST() {
+		super(new Arena());
+	}
+
+	public String getName() {
+		return "OffHeapBST";
+	}
+}
@@ -0,0 +1,207 @@
+package algorithms;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+
+import main.BSTInterface;
+import main.Snapshottable;
+
+/**
+ * Persistent treap: nodes are immutable, and an update copies the path from
+ * the root to the nodes it changes and installs the new root with one CAS.
+ *
+ * Every root ever installed is a complete, unchanging version of the set, so
+ * snapshot() is a single read, and each node carries the size and key sum
+ * of its subtree, so a snapshot is sized and summed in O(1). Node priorities
+ * are a hash of the key, which keeps the tree balanced in expectation for
+ * any insertion order. Updates are lock-free but serialize on the root: an
+ * update retries whenever another one lands first.
+ */
+public class PersistentBST implements BSTInterface, Snapshottable {
+	static final class Node {
+		final int key;
+		final int priority;
+		final Node left;
+		final Node right;
+		final int size;
+		final long sum;
+
+		Node(final int key, final int priority, final Node left, final Node right) {
+			this.key = key;
+			this.priority = priority;
+			this.left = left;
+			this.right = right;
+			this.size = 1 + size(left) + size(right);
+			this.sum = key + sum(left) + sum(right);
+		}
+
+		// Same key and priority, new children
+		final Node with(final Node left, final Node right) {
+			return new Node(key, priority, left, right);
+		}
+	}
+
+	static final class Version implements Snapshottable.Snapshot {
+		private final Node root;
+
+		Version(final Node root) {
+			this.root = root;
+		}
+
+		public final boolean contains(final int key) {
+			return find(root, key);
+		}
+
+		public final int size() {
+			return PersistentBST.size(root);
+		}
+
+		public final long getKeysum() {
+			return sum(root);
+		}
+
+		public final void rangeScan(final int lo, final int hi, final IntConsumer action) {
+			scan(root, lo, hi, action);
+		}
+	}
+
+	private final AtomicReference<Node> root = new AtomicReference<Node>();
+
+	static final int size(final Node node) {
+		return (node == null) ? 0 : node.size;
+	}
+
+	static final long sum(final Node node) {
+		return (node == null) ? 0 : node.sum;
+	}
+
+	static final int priority(final int key) {
+		int h = key * 0x9E3779B9;
+		h ^= h >>> 16;
+		return h * 0x85EBCA6B;
+	}
+
+	static final boolean find(Node node, final int key) {
+		while (node != null) {
+			if (key == node.key)
+				return true;
+			node = (key < node.key) ? node.left : node.right;
+		}
+		return false;
+	}
+
+	static final void scan(final Node node, final int lo, final int hi, final IntConsumer action) {
+		if (node == null)
+			return;
+		if (lo < node.key)
+			scan(node.left, lo, hi, action);
+		if (lo <= node.key && node.key < hi)
+			action.accept(node.key);
+		if ((long) node.key + 1 < hi)
+			scan(node.right, lo, hi, action);
+	}
+
+	// Returns node itself if key is already there
+	static final Node insert(final Node node, final int key) {
+		if (node == null)
+			return new Node(key, priority(key), null, null);
+		if (key == node.key)
+			return node;
+
+		if (key < node.key) {
+			final Node left = insert(node.left, key);
+			if (left == node.left)
+				return node;
+			if (left.priority > node.priority)
+				// rotate right
+				return left.with(left.left, node.with(left.right, node.right));
+			return node.with(left, node.right);
+		} else {
+			final Node right = insert(node.right, key);
+			if (right == node.right)
+				return node;
+			if (right.priority > node.priority)
+				// rotate left
+				return right.with(node.with(node.left, right.left), right.right);
+			return node.with(node.left, right);
+		}
+	}
+
+	// Returns node itself if key is not there
+	static final Node remove(final Node node, final int key) {
+		if (node == null)
+			return null;
+		if (key == node.key)
+			return merge(node.left, node.right);
+
+		if (key < node.key) {
+			final Node left = remove(node.left, key);
+			return (left == node.left) ? node : node.with(left, node.right);
+		} else {
+			final Node right = remove(node.right, key);
+			return (right == node.right) ? node : node.with(node.left, right);
+		}
+	}
+
+	// Joins two treaps where every key of a is below every key of b
+	static final Node merge(final Node a, final Node b) {
+		if (a == null)
+			return b;
+		if (b == null)
+			return a;
+		if (a.priority > b.priority)
+			return a.with(a.left, merge(a.right, b));
+		return b.with(merge(a, b.left), b.right);
+	}
+
+	public final boolean contains(final int key) {
+		return find(root.get(), key);
+	}
+
+	public final boolean insert(final int key) {
+		while (true) {
+			final Node current = root.get();
+			final Node updated = insert(current, key);
+			if (updated == current)
+				return false;
+			if (root.compareAndSet(current, updated))
+				return true;
+		}
+	}
+
+	public final boolean remove(final int key) {
+		while (true) {
+			final Node current = root.get();
+			final Node updated = remove(current, key);
+			if (updated == current)
+				return false;
+			if (root.compareAndSet(current, updated))
+				return true;
+		}
+	}
+
+	public final Snapshottable.Snapshot snapshot() {
+		return new Version(root.get());
+	}
+
+	// Scans a snapshot, so unlike other trees the scan is linearizable
+	public final void rangeScan(final int lo, final int hi, final IntConsumer action) {
+		scan(root.get(), lo, hi, action);
+	}
+
+	public String getName() {
+		return "PersistentBST";
+	}
+
+	// Returns size of the tree.
+	// Unlike the other trees this is exact under concurrent updates.
+	public final int size() {
+		return size(root.get());
+	}
+
+	// Returns the sum of keys in the tree
+	// Unlike the other trees this is exact under concurrent updates.
+	public final long getKeysum() {
+		return sum(root.get());
+	}
+}
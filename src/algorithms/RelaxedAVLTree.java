@@ -0,0 +1,119 @@
+package algorithms;
+
+import java.util.ArrayDeque;
+
+import main.Instrumented;
+
+/**
+ * AVLTree with rebalancing decoupled from updates, in the spirit of Crain,
+ * Gramoli and Raynal's contention-friendly tree.
+ *
+ * Inserts and removes only link, unlink or flag nodes and return, leaving
+ * wrong heights, imbalances and unlinkable routing nodes behind as
+ * violations. A dedicated rebalancer thread keeps sweeping the tree and
+ * repairs them with the same local rotations AVLTree performs eagerly, so
+ * the update critical path never includes a rotation.
+ *
+ * The rebalancer occupies a core of its own while the tree is open; call
+ * close() to stop it.
+ */
+public class RelaxedAVLTree extends AVLTree implements Instrumented, AutoCloseable {
+	// How long the rebalancer sleeps after a sweep that found nothing to do
+	static final long IDLE_SLEEP_MILLIS = 1;
+
+	private final Thread rebalancer;
+	private volatile boolean running;
+	private volatile long passes;
+
+	public RelaxedAVLTree() {
+		running = true;
+		rebalancer = new Thread(new Runnable() {
+			public void run() {
+				while (running) {
+					if (sweep() == 0) {
+						try {
+							Thread.sleep(IDLE_SLEEP_MILLIS);
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+					passes++;
+				}
+			}
+		}, "RelaxedAVLTree-rebalancer");
+		rebalancer.setDaemon(true);
+		rebalancer.start();
+	}
+
+	@Override
+	final void repair(final Node damaged) {
+		// Left for the rebalancer
+	}
+
+	// Visits every node reachable from the root once and repairs it if needed.
+	// Returns the number of nodes that needed repair.
+	private final int sweep() {
+		final ArrayDeque<Node> stack = new ArrayDeque<Node>();
+		int repaired = 0;
+		final Node root = rootHolder.right;
+		if (root != null)
+			stack.push(root);
+
+		while (running && !stack.isEmpty()) {
+			final Node node = stack.pop();
+			final Node left = node.left;
+			final Node right = node.right;
+			if (left != null)
+				stack.push(left);
+			if (right != null)
+				stack.push(right);
+
+			if (nodeCondition(node) != NOTHING_REQUIRED) {
+				fixHeightAndRebalance(node);
+				repaired++;
+			}
+		}
+		return repaired;
+	}
+
+	// Stops the rebalancer thread. The tree remains usable, but no longer
+	// repairs itself.
+	public final void close() {
+		running = false;
+		try {
+			rebalancer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// Returns the number of nodes whose height, balance or routing state
+	// still needs repair.
+	// NOTE: Guaranteed to be called without concurrent operations.
+	public final int violations() {
+		final ArrayDeque<Node> stack = new ArrayDeque<Node>();
+		int violations = 0;
+		if (rootHolder.right != null)
+			stack.push(rootHolder.right);
+
+		while (!stack.isEmpty()) {
+			final Node node = stack.pop();
+			if (node.left != null)
+				stack.push(node.left);
+			if (node.right != null)
+				stack.push(node.right);
+			if (nodeCondition(node) != NOTHING_REQUIRED)
+				violations++;
+		}
+		return violations;
+	}
+
+	public final String getStats() {
+		return "violations=" + violations() + " passes=" + passes;
+	}
+
+	@Override
+	public String getName() {
+		return "RelaxedAVLTree";
+	}
+}
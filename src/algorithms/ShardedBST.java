@@ -0,0 +1,127 @@
+package algorithms;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+import main.BSTInterface;
+import main.Instrumented;
+
+/**
+ * Front-end that splits the key range [minKey, maxKey] into equal contiguous
+ * slices and keeps one independent tree per slice.
+ *
+ * Updates to keys in different slices never touch the same nodes, and in
+ * particular never share a root. Keys outside the range go to the first or
+ * last shard, so the set stays correct for any key, only less evenly spread.
+ */
+public class ShardedBST implements BSTInterface, Instrumented, AutoCloseable {
+	private final BSTInterface[] shards;
+	private final int minKey;
+	private final long span;
+	// shard = (offset * scale) >>> 32, i.e. offset * shards.length / span without a division
+	private final long scale;
+
+	public ShardedBST(final BSTInterface[] shards, final int minKey, final int maxKey) {
+		if (shards.length == 0 || maxKey < minKey)
+			throw new IllegalArgumentException("need at least one shard and minKey <= maxKey");
+		this.shards = shards;
+		this.minKey = minKey;
+		this.span = (long) maxKey - minKey + 1;
+		this.scale = ((long) shards.length << 32) / span;
+	}
+
+	private final int index(final int key) {
+		final long offset = (long) key - minKey;
+		if (offset <= 0)
+			return 0;
+		if (offset >= span)
+			return shards.length - 1;
+		return Math.min((int) ((offset * scale) >>> 32), shards.length - 1);
+	}
+
+	private final BSTInterface shard(final int key) {
+		return shards[index(key)];
+	}
+
+	public final boolean contains(final int key) {
+		return shard(key).contains(key);
+	}
+
+	public final boolean insert(final int key) {
+		return shard(key).insert(key);
+	}
+
+	public final boolean remove(final int key) {
+		return shard(key).remove(key);
+	}
+
+	// Shards hold consecutive key ranges, so scanning them in order keeps the
+	// keys in ascending order
+	public final void rangeScan(final int lo, final int hi, final IntConsumer action) {
+		if (lo >= hi)
+			return;
+		final int last = index(hi - 1);
+		for (int i = index(lo); i <= last; i++)
+			shards[i].rangeScan(lo, hi, action);
+	}
+
+	public String getName() {
+		return "Sharded" + shards.length + "-" + shards[0].getName();
+	}
+
+	// Returns size of the tree.
+	// NOTE: Guaranteed to be called without concurrent operations.
+	public final int size() {
+		int size = 0;
+		for (BSTInterface shard : shards)
+			size += shard.size();
+		return size;
+	}
+
+	// Returns the sum of keys in the tree
+	// NOTE: Guaranteed to be called without concurrent operations.
+	public final long getKeysum() {
+		long keysum = 0;
+		for (BSTInterface shard : shards)
+			keysum += shard.getKeysum();
+		return keysum;
+	}
+
+	// Sums each numeric statistic over the shards that report it
+	public final String getStats() {
+		final Map<String, Double> totals = new LinkedHashMap<String, Double>();
+		for (BSTInterface shard : shards) {
+			if (!(shard instanceof Instrumented))
+				continue;
+			for (String stat : ((Instrumented) shard).getStats().split(" ")) {
+				final int eq = stat.indexOf('=');
+				if (eq < 0)
+					continue;
+				try {
+					final String name = stat.substring(0, eq);
+					final double value = Double.parseDouble(stat.substring(eq + 1));
+					totals.put(name, (totals.containsKey(name) ? totals.get(name) : 0) + value);
+				} catch (NumberFormatException e) {
+					// not a number, cannot be summed
+				}
+			}
+		}
+
+		final StringBuilder sb = new StringBuilder("shards=" + shards.length);
+		for (Map.Entry<String, Double> e : totals.entrySet()) {
+			final double v = e.getValue();
+			sb.append(' ').append(e.getKey()).append('=');
+			if (v == Math.rint(v))
+				sb.append((long) v);
+			else
+				sb.append(v);
+		}
+		return sb.toString();
+	}
+
+	public final void close() {
+		for (BSTInterface shard : shards)
+			BSTInterface.closeIfCloseable(shard);
+	}
+}
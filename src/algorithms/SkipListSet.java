@@ -0,0 +1,110 @@
+package algorithms;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+import main.OrderedBSTInterface;
+
+/**
+ * java.util.concurrent.ConcurrentSkipListSet behind the harness interface,
+ * as a baseline for the ordered operations and pollFirst(). Keys are boxed.
+ */
+public class SkipListSet implements OrderedBSTInterface {
+	private final ConcurrentSkipListSet<Integer> set = new ConcurrentSkipListSet<Integer>();
+
+	public final boolean contains(final int key) {
+		return set.contains(key);
+	}
+
+	public final boolean insert(final int key) {
+		return set.add(key);
+	}
+
+	public final boolean remove(final int key) {
+		return set.remove(key);
+	}
+
+	private static int orNone(final Integer key) {
+		return (key == null) ? NONE : key;
+	}
+
+	public final int first() {
+		try {
+			return set.first();
+		} catch (NoSuchElementException e) {
+			return NONE;
+		}
+	}
+
+	public final int last() {
+		try {
+			return set.last();
+		} catch (NoSuchElementException e) {
+			return NONE;
+		}
+	}
+
+	public final int floor(final int key) {
+		return orNone(set.floor(key));
+	}
+
+	public final int ceiling(final int key) {
+		return orNone(set.ceiling(key));
+	}
+
+	public final int pollFirst() {
+		return orNone(set.pollFirst());
+	}
+
+	// Skips along the bottom level instead of searching for each successor
+	public final int pollFirstRelaxed(final int spread) {
+		for (int attempt = 0; attempt < RELAXED_ATTEMPTS; attempt++) {
+			int skip = ThreadLocalRandom.current().nextInt(spread);
+			final Iterator<Integer> it = set.iterator();
+			if (!it.hasNext())
+				break;
+			int key = it.next();
+			while (skip-- > 0 && it.hasNext())
+				key = it.next();
+			if (set.remove(key))
+				return key;
+		}
+		return pollFirst();
+	}
+
+	public final PrimitiveIterator.OfInt iterator(final int lo, final int hi) {
+		final Iterator<Integer> it = (lo < hi) ? set.subSet(lo, hi).iterator() : Collections.<Integer>emptyIterator();
+		return new PrimitiveIterator.OfInt() {
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+
+			public int nextInt() {
+				return it.next();
+			}
+		};
+	}
+
+	public String getName() {
+		return "SkipListSet";
+	}
+
+	// Returns size of the tree.
+	// NOTE: Guaranteed to be called without concurrent operations.
+	public final int size() {
+		return set.size();
+	}
+
+	// Returns the sum of keys in the tree
+	// NOTE: Guaranteed to be called without concurrent operations.
+	public final long getKeysum() {
+		long sum = 0;
+		for (int key : set)
+			sum += key;
+		return sum;
+	}
+}
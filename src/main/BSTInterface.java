@@ -19,6 +19,12 @@
 
 package main;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+
 public interface BSTInterface {
     public boolean contains(final int key);
     public boolean insert(final int key);
@@ -26,4 +32,72 @@ public interface BSTInterface {
     public int size();
     public String getName();
     public long getKeysum();
+
+    // Batch operations. results[i] receives the outcome for keys[i], and the
+    // number of true outcomes is returned. Each key is a separate operation;
+    // implementations may reorder them (e.g., sort the keys to share work).
+    public default int containsAll(final int[] keys, final boolean[] results) {
+        int count = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (results[i] = contains(keys[i])) count++;
+        }
+        return count;
+    }
+    public default int insertAll(final int[] keys, final boolean[] results) {
+        int count = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (results[i] = insert(keys[i])) count++;
+        }
+        return count;
+    }
+    public default int removeAll(final int[] keys, final boolean[] results) {
+        int count = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (results[i] = remove(keys[i])) count++;
+        }
+        return count;
+    }
+
+    // Ordered access to the keys in [lo, hi). Both are weakly consistent and
+    // may run concurrently with updates: keys come in ascending order without
+    // repeats, every key present for the whole scan is reported, and keys
+    // inserted or removed during the scan may or may not be.
+    // The defaults probe every key of the range with contains(), which takes
+    // O(hi - lo) time; trees with an ordered traversal override them.
+    public default PrimitiveIterator.OfInt iterator(final int lo, final int hi) {
+        return new PrimitiveIterator.OfInt() {
+            private long next = lo; // first key not probed yet
+            private boolean found;
+            public boolean hasNext() {
+                while (!found && next < hi) {
+                    found = contains((int) next++);
+                }
+                return found;
+            }
+            public int nextInt() {
+                if (!hasNext()) throw new NoSuchElementException();
+                found = false;
+                return (int) (next - 1);
+            }
+        };
+    }
+    public default void rangeScan(final int lo, final int hi, final IntConsumer action) {
+        iterator(lo, hi).forEachRemaining(action);
+    }
+
+    // Closes tree if it is AutoCloseable, for front-ends that own other trees.
+    // Checked exceptions from its close() are rethrown unchecked, so the
+    // front-ends' own close() need not declare them.
+    public static void closeIfCloseable(final BSTInterface tree) {
+        if (!(tree instanceof AutoCloseable)) return;
+        try {
+            ((AutoCloseable) tree).close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("closing " + tree.getName() + " failed", e);
+        }
+    }
 }
@@ -0,0 +1,11 @@
+package main;
+
+/**
+ * Implemented by trees that keep statistics of their own. The harness calls
+ * getStats() once per trial, after all worker threads have stopped, and
+ * appends the result to the trial's line of output.
+ */
+public interface Instrumented {
+    // Returns space-separated name=value pairs, e.g. "violations=0 passes=12"
+    public String getStats();
+}
@@ -0,0 +1,59 @@
+package main;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Blocking client for KeySetServer. send() and receive() are separate so
+ * that a caller can keep several batches in flight: answers arrive in the
+ * order the batches were sent. Not thread-safe; use one client per thread.
+ */
+public class KeySetClient implements AutoCloseable {
+    private final SocketChannel channel;
+    private ByteBuffer request = ByteBuffer.allocate(4 + 256 * KeySetServer.FRAME_SIZE);
+    private ByteBuffer answer = ByteBuffer.allocate(4 + 256);
+
+    public KeySetClient(final InetSocketAddress address) throws IOException {
+        channel = SocketChannel.open(address);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+
+    // Sends the first n operations (KeySetServer.CONTAINS, INSERT or REMOVE) on the given keys
+    public void send(final byte[] ops, final int[] keys, final int n) throws IOException {
+        if (n < 1 || n > KeySetServer.MAX_BATCH) throw new IllegalArgumentException("batch size must be in [1, " + KeySetServer.MAX_BATCH + "]");
+        final int length = 4 + n * KeySetServer.FRAME_SIZE;
+        if (request.capacity() < length) request = ByteBuffer.allocate(length);
+        request.clear();
+        request.putInt(n);
+        for (int i=0;i<n;i++) request.put(ops[i]).putInt(keys[i]);
+        request.flip();
+        while (request.hasRemaining()) channel.write(request);
+    }
+
+    // Receives the answer to the oldest batch not yet received into results,
+    // and returns its size
+    public int receive(final boolean[] results) throws IOException {
+        answer.clear().limit(4);
+        readFully(answer);
+        final int n = answer.getInt(0);
+        if (answer.capacity() < n) answer = ByteBuffer.allocate(4 + n);
+        answer.clear().limit(n);
+        readFully(answer);
+        for (int i=0;i<n;i++) results[i] = answer.get(i) != 0;
+        return n;
+    }
+
+    private void readFully(final ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) {
+            if (channel.read(b) < 0) throw new EOFException("server closed the connection");
+        }
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,265 @@
+package main;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves a BSTInterface over TCP.
+ *
+ * Protocol: a client sends batches, each a 4-byte operation count n
+ * (1 to MAX_BATCH) followed by n frames of an operation byte (CONTAINS,
+ * INSERT or REMOVE) and a 4-byte key. The server answers each batch with n
+ * and then one result byte (0 or 1) per frame. All integers are big-endian.
+ * A client may send further batches without waiting for answers; batches
+ * of one connection are applied and answered in order. A bad count or
+ * operation byte closes the connection.
+ *
+ * One selector thread does all the socket I/O and owns all connection
+ * state. Complete batches are applied to the tree by a pool of workers, at
+ * most one batch per connection at a time, and their answers are handed
+ * back to the selector thread to send.
+ */
+public class KeySetServer implements AutoCloseable {
+    public static final byte CONTAINS = 0;
+    public static final byte INSERT = 1;
+    public static final byte REMOVE = 2;
+    public static final int FRAME_SIZE = 5;
+    public static final int MAX_BATCH = 1 << 16;
+
+    static final int BUFFER_SIZE = 1 << 16;
+    // Stop reading from a client that has this many answers waiting to be sent
+    static final int MAX_PENDING_ANSWERS = 64;
+
+    private final class Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        final ArrayDeque<ByteBuffer> out = new ArrayDeque<ByteBuffer>();
+        // Whether a batch of this connection is with the workers
+        boolean busy;
+
+        Connection(final SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private static final class Answer {
+        final Connection connection;
+        final ByteBuffer results;
+
+        Answer(final Connection connection, final ByteBuffer results) {
+            this.connection = connection;
+            this.results = results;
+        }
+    }
+
+    private final BSTInterface tree;
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final ConcurrentLinkedQueue<Answer> answers = new ConcurrentLinkedQueue<Answer>();
+    private final Thread selectorThread;
+    private volatile boolean running = true;
+
+    // Listens on address (port 0 picks a free port) and applies batches
+    // with the given number of worker threads
+    public KeySetServer(final BSTInterface tree, final InetSocketAddress address, final int nworkers) throws IOException {
+        this.tree = tree;
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(address);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        workers = Executors.newFixedThreadPool(nworkers, new ThreadFactory() {
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "KeySetServer-worker");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        selectorThread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    serve();
+                } catch (IOException e) {
+                    if (running) e.printStackTrace();
+                }
+            }
+        }, "KeySetServer-selector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) server.getLocalAddress();
+    }
+
+    private void serve() throws IOException {
+        while (running) {
+            selector.select();
+
+            Answer answer;
+            while ((answer = answers.poll()) != null) {
+                final Connection c = answer.connection;
+                c.busy = false;
+                if (!c.channel.isOpen()) continue;
+                c.out.add(answer.results);
+                try {
+                    write(c);
+                    dispatch(c);
+                    updateInterest(c);
+                } catch (IOException e) {
+                    c.key.cancel();
+                    c.channel.close();
+                }
+            }
+
+            final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                final SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) continue;
+                try {
+                    if (key.isAcceptable()) accept();
+                    else {
+                        final Connection c = (Connection) key.attachment();
+                        if (key.isWritable()) write(c);
+                        if (key.isReadable()) read(c);
+                        if (key.isValid()) updateInterest(c);
+                    }
+                } catch (IOException e) {
+                    // the client went away; drop the connection
+                    key.cancel();
+                    key.channel().close();
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        final SocketChannel channel = server.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        final Connection c = new Connection(channel);
+        c.key = channel.register(selector, SelectionKey.OP_READ, c);
+    }
+
+    private void read(final Connection c) throws IOException {
+        if (c.channel.read(c.in) < 0) {
+            c.key.cancel();
+            c.channel.close();
+            return;
+        }
+        dispatch(c);
+    }
+
+    private void write(final Connection c) throws IOException {
+        while (!c.out.isEmpty()) {
+            final ByteBuffer b = c.out.peek();
+            c.channel.write(b);
+            if (b.hasRemaining()) break;
+            c.out.poll();
+        }
+    }
+
+    // Reads only while there is room for more requests (dispatch() grows the
+    // buffer once a batch needs it) and the client keeps up with the answers
+    private void updateInterest(final Connection c) {
+        if (!c.key.isValid()) return;
+        int ops = 0;
+        if (c.in.hasRemaining() && c.out.size() < MAX_PENDING_ANSWERS) ops |= SelectionKey.OP_READ;
+        if (!c.out.isEmpty()) ops |= SelectionKey.OP_WRITE;
+        c.key.interestOps(ops);
+    }
+
+    // Hands the next complete batch of c to the workers, unless one is already there
+    private void dispatch(final Connection c) throws IOException {
+        if (c.busy || c.in.position() < 4) return;
+        final int n = c.in.getInt(0);
+        if (n < 1 || n > MAX_BATCH) throw new IOException("bad batch size " + n);
+        final int length = 4 + n * FRAME_SIZE;
+        if (c.in.position() < length) {
+            if (c.in.capacity() < length) {
+                final ByteBuffer larger = ByteBuffer.allocate(Math.max(length, 2 * c.in.capacity()));
+                c.in.flip();
+                larger.put(c.in);
+                c.in = larger;
+            }
+            return;
+        }
+
+        final byte[] ops = new byte[n];
+        final int[] keys = new int[n];
+        c.in.flip();
+        c.in.getInt();
+        for (int i = 0; i < n; i++) {
+            ops[i] = c.in.get();
+            keys[i] = c.in.getInt();
+            if (ops[i] != CONTAINS && ops[i] != INSERT && ops[i] != REMOVE) throw new IOException("bad operation " + ops[i]);
+        }
+        c.in.compact();
+
+        c.busy = true;
+        workers.execute(new Runnable() {
+            public void run() {
+                final ByteBuffer results = ByteBuffer.allocate(4 + n);
+                results.putInt(n);
+                for (int i = 0; i < n; i++) {
+                    final boolean result;
+                    switch (ops[i]) {
+                        case INSERT: result = tree.insert(keys[i]); break;
+                        case REMOVE: result = tree.remove(keys[i]); break;
+                        default: result = tree.contains(keys[i]); break;
+                    }
+                    results.put((byte) (result ? 1 : 0));
+                }
+                results.flip();
+                answers.add(new Answer(c, results));
+                selector.wakeup();
+            }
+        });
+    }
+
+    // Stops accepting and serving and closes all connections; batches already
+    // with the workers are still applied to the tree before close() returns.
+    // The selector thread goes first, so it never hands a batch to a pool that
+    // has been shut down. An interrupt does not cut the wait short; it is
+    // restored on return.
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        boolean interrupted = false;
+        while (selectorThread.isAlive()) {
+            try {
+                selectorThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        for (SelectionKey key : selector.keys()) key.channel().close();
+        selector.close();
+        workers.shutdown();
+        while (!workers.isTerminated()) {
+            try {
+                if (!workers.awaitTermination(1, TimeUnit.MINUTES)) break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+}
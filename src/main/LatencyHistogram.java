@@ -0,0 +1,61 @@
+package main;
+
+/**
+ * Log-linear histogram of latencies in nanoseconds: each power of two is
+ * split into SUB_BUCKETS equal buckets, so recorded values, and hence the
+ * reported percentiles, are accurate to within 1/SUB_BUCKETS. Not
+ * thread-safe; the harness keeps one per worker and merges them.
+ */
+public class LatencyHistogram {
+    static final int SUB_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final long[] counts = new long[64 * SUB_BUCKETS];
+    private long total;
+    private long sum;
+
+    static int bucket(final long nanos) {
+        if (nanos < SUB_BUCKETS) return (int) Math.max(nanos, 0);
+        final int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        final int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // the smallest value that falls into bucket b
+    static long lowerBound(final int b) {
+        if (b < SUB_BUCKETS) return b;
+        final int exponent = b / SUB_BUCKETS + SUB_BITS - 1;
+        return (long) (SUB_BUCKETS + b % SUB_BUCKETS) << (exponent - SUB_BITS);
+    }
+
+    public void record(final long nanos) {
+        counts[bucket(nanos)]++;
+        total++;
+        sum += nanos;
+    }
+
+    public void add(final LatencyHistogram other) {
+        for (int i=0;i<counts.length;i++) counts[i] += other.counts[i];
+        total += other.total;
+        sum += other.sum;
+    }
+
+    public long count() {
+        return total;
+    }
+
+    public double mean() {
+        return total == 0 ? 0 : sum / (double) total;
+    }
+
+    // the lower bound of the bucket holding the given percentile (0 to 100)
+    public long percentile(final double p) {
+        final long rank = (long) Math.ceil(total * p / 100);
+        long seen = 0;
+        for (int i=0;i<counts.length;i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) return lowerBound(i);
+        }
+        return 0;
+    }
+}
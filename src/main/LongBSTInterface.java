@@ -0,0 +1,15 @@
+package main;
+
+/**
+ * The set operations of BSTInterface over 64-bit keys. The harness drives a
+ * tree implementing it with long keys, which lets -keysM go beyond 2^31.
+ */
+public interface LongBSTInterface {
+    public boolean contains(final long key);
+    public boolean insert(final long key);
+    public boolean remove(final long key);
+    public int size();
+    public String getName();
+    // Wraps around on overflow, which keeps it usable as a checksum
+    public long getKeysum();
+}
@@ -23,12 +23,15 @@ import main.*;
 import algorithms.*;
 import java.io.*;
 import java.lang.management.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.TreeMap;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
 
 public class Main {
 
@@ -37,7 +40,9 @@ public class Main {
     public static final int RAW_NUMBER_OF_PROCESSORS = Runtime.getRuntime().availableProcessors();
     public static final int NUMBER_OF_PROCESSORS = RAW_NUMBER_OF_PROCESSORS == 8 ? 4 : RAW_NUMBER_OF_PROCESSORS; // override for hyperthreading on i7
     public static final boolean PRINT_FREEMEM = false; // note: just a (rather inaccurate) estimate
+    public static final long MAX_KEYRANGE = 1L << 53; // the largest key range a SwitchMap (double) holds exactly
     private long startFreemem = 0;
+    private long memoryBaseline = 0; // heap+direct memory in use before the current trial's tree was created
 
     // variables for the experiment
     protected int nthreads;
@@ -48,37 +53,130 @@ public class Main {
     protected String alg;
     protected SwitchMap switches;
     protected boolean prefill;
+    protected String snapshotFile; // -loadSnapshot-<file>, or null
+    protected InetSocketAddress serverAddress; // where the current trial's tree is served with -serve, or null
     
     // some timing variables
     protected AtomicLong startUserTime = new AtomicLong(0);
     protected AtomicLong startWallTime = new AtomicLong(0);
     
     public Main(int nthreads, int ntrials, double nseconds, String filename,
-            Ratio ratio, SwitchMap switches, boolean prefill) {
+            Ratio ratio, String alg, SwitchMap switches, boolean prefill) {
         this.nthreads = nthreads;
         this.ntrials = ntrials;
         this.nseconds = nseconds;
         this.filename = filename;
         this.ratio = ratio;
-        this.alg = "BST";
+        this.alg = alg;
         this.switches = switches;
         this.prefill = prefill;
     }
     
+    // returns a new, empty instance of the named algorithm, or null if the name is unknown
+    // (new algorithms also go into treeClass)
+    public static BSTInterface createTree(final String alg) {
+        switch (alg) {
+            case "BST": return new BST();
+            case "LockFreeBST": return new LockFreeBST();
+            case "AVLTree": return new AVLTree();
+            case "RelaxedAVLTree": return new RelaxedAVLTree();
+            case "OffHeapBST": return new OffHeapBST();
+            case "ArrayBST": return new ArrayBST();
+            case "PersistentBST": return new PersistentBST();
+            case "BSTMap": return new BSTMap().keySet();
+            case "LongBST": return new LongBST();
+            case "BPlusTree": return new BPlusTree();
+            case "KaryTree": return new KaryTree();
+            case "SkipListSet": return new SkipListSet();
+            default: return null;
+        }
+    }
+    
+    // returns the class of the trees createTree(alg) returns, or null if the name
+    // is unknown; lets the command line be checked without building a tree,
+    // which for some algorithms starts threads or allocates off-heap memory
+    public static Class<? extends BSTInterface> treeClass(final String alg) {
+        switch (alg) {
+            case "BST": return BST.class;
+            case "LockFreeBST": return LockFreeBST.class;
+            case "AVLTree": return AVLTree.class;
+            case "RelaxedAVLTree": return RelaxedAVLTree.class;
+            case "OffHeapBST": return OffHeapBST.class;
+            case "ArrayBST": return ArrayBST.class;
+            case "PersistentBST": return PersistentBST.class;
+            case "BSTMap": return BSTMap.KeySet.class;
+            case "LongBST": return LongBST.class;
+            case "BPlusTree": return BPlusTree.class;
+            case "KaryTree": return KaryTree.class;
+            case "SkipListSet": return SkipListSet.class;
+            default: return null;
+        }
+    }
+    
+    // builds the tree for one trial of ex, split into shards if requested
+    protected BSTInterface createTree(final Experiment ex) {
+        final int nshards = (int) switches.get("shards");
+        if (nshards <= 0) return newTree(ex.alg);
+        final BSTInterface[] shards = new BSTInterface[nshards];
+        for (int i=0;i<nshards;i++) shards[i] = newTree(ex.alg);
+        return new ShardedBST(shards, 1, (int) ex.maxkey);
+    }
+    
+    // as createTree(alg), but a BST gets the lock policy chosen by -lockPolicy and -backoff,
+    // and recycles nodes with -recycle, and wide-node trees get the -fanout
+    protected BSTInterface newTree(final String alg) {
+        if (alg.equals("BST") && switches.get("lockPolicy") > 0) {
+            return new BST(BST.LockPolicy.values()[(int) switches.get("lockPolicy") - 1],
+                    (int) switches.get("backoffMin"), (int) switches.get("backoffMax"), switches.get("recycle") > 0);
+        }
+        if (alg.equals("BPlusTree") && switches.get("fanout") > 0) {
+            return new BPlusTree((int) switches.get("fanout"));
+        }
+        if (alg.equals("KaryTree") && switches.get("fanout") > 0) {
+            return new KaryTree((int) switches.get("fanout"));
+        }
+        return createTree(alg);
+    }
+    
+    // wraps a (prefilled) tree so that the trial's updates are logged; the log
+    // only lives for the trial and is deleted once the trial is validated
+    // (and, with -loadSnapshot, recovery from it is checked)
+    protected BSTInterface makeDurable(final BSTInterface tree) {
+        try {
+            final File log = File.createTempFile("bst-", ".log", new File("."));
+            log.deleteOnExit();
+            return new DurableBST(tree, log.toPath(), (long) switches.get("commitInterval"));
+        } catch (IOException e) { e.printStackTrace(); System.exit(-1); }
+        return null;
+    }
+    
     public final class RandomGenerator {
         final Random rng;
-        final int maxKey;
+        final long maxKey;
         final int id, numberOfIds;
+        // null for uniform keys
+        final Zipf zipf;
+
+        public RandomGenerator(final int id, final int numberOfIds, final Random rng, final long maxKey) {
+            this(id, numberOfIds, rng, maxKey, null);
+        }
 
-        public RandomGenerator(final int id, final int numberOfIds, final Random rng, final int maxKey) {
+        public RandomGenerator(final int id, final int numberOfIds, final Random rng, final long maxKey, final Zipf zipf) {
             if (maxKey < 0) throw new RuntimeException("maxKey must be > 0");
             this.rng = rng;
             this.maxKey = maxKey;
             this.id = id;
             this.numberOfIds = numberOfIds;
+            this.zipf = zipf;
         }
 
-        public Integer next() {
+        public int next() {
+            if (zipf != null) return zipf.next(rng);
+            return rng.nextNatural((int) maxKey)+1;
+        }
+
+        // for key ranges beyond 2^31
+        public long nextLong() {
             return rng.nextNatural(maxKey)+1;
         }
     }
@@ -91,6 +189,16 @@ public class Main {
         public abstract int getFalseDel();
         public abstract int getTrueFind();
         public abstract int getFalseFind();
+        public abstract int getScans();
+        public abstract int getTrueUpdate();
+        public abstract int getFalseUpdate();
+        public abstract long getValuesum();
+        public abstract long getAllocatedBytes();
+        public abstract LatencyHistogram getLatencies();
+        public abstract LatencyHistogram getRoundTrips();
+        public abstract long getScannedKeys();
+        public abstract int getPolls();
+        public abstract int getEmptyPolls();
         public abstract long getEndTime();
         public abstract long getStartTime();
         public abstract long getMyStartCPUTime();
@@ -108,6 +216,17 @@ public class Main {
         RandomGenerator gen;
         BSTInterface tree;
         int trueDel, falseDel, trueIns, falseIns, trueFind, falseFind;
+        int scans;
+        long scannedKeys;
+        int polls, emptyPolls;
+        int trueUpdate, falseUpdate;
+        long valuesum; // for BSTMap: sum of values this thread added to the map minus values it removed
+        long allocatedBytes; // heap allocated by this thread while timed, if measured
+        LatencyHistogram latencies; // latencies of updates, if measured
+        LatencyHistogram roundTrips; // round trips of batches sent to the server, with -serve
+        final IntConsumer scanCounter = new IntConsumer() {
+            public void accept(final int key) { scannedKeys++; }
+        };
         long keysum; // sum of new keys inserted by this thread minus keys deleted by this thread
         final Experiment ex;
         Random rng;
@@ -166,6 +285,8 @@ public class Main {
             while (ex.state == ExperimentState.PENDING);
 
             // start timing
+            final boolean measureAllocation = switches.get("measureAllocation") > 0;
+            if (measureAllocation) allocatedBytes = -allocatedBytes(id);
             myStartUserTime = bean.getThreadUserTime(id);
             myStartCPUTime = bean.getThreadCpuTime(id);
             myStartWallTime = System.nanoTime();
@@ -173,14 +294,185 @@ public class Main {
             sharedStartWallTime.compareAndSet(0, myStartWallTime);
             
             // perform operations while experiment's state is running
+            final int batchSize = (int) switches.get("batch");
+            if (serverAddress != null) runRemote(serverAddress, batchSize > 0 ? batchSize : 16, (int) switches.get("pipeline"));
+            else if (batchSize > 0) runBatches(batchSize);
+            else if (tree instanceof BSTMap.KeySet) runMapOps(((BSTMap.KeySet) tree).map());
+            else if (tree instanceof LongBSTInterface) runLongOps((LongBSTInterface) tree);
+            else runOps();
+            
+            // finish timing
+            wallTime = System.nanoTime();
+            userTime = bean.getThreadUserTime(id);
+            cpuTime = bean.getThreadCpuTime(id);
+            if (measureAllocation) allocatedBytes += allocatedBytes(id);
+        }
+
+        // default mode: one random operation at a time on int keys
+        private void runOps() {
+            final double rangeRatio = switches.get("ratio-range") / 100.;
+            final int scanWidth = (int) switches.get("scanWidth");
+            final double pollRatio = switches.get("ratio-poll") / 100.;
+            final int spray = (int) switches.get("sprayWidth");
+            if (switches.get("latency") > 0) latencies = new LatencyHistogram();
             while (ex.state == ExperimentState.RUNNING) {
                 final int key = gen.next();
                 final double op = rng.nextNatural() / (double) Integer.MAX_VALUE;
                 if (op < ratio.ins) {
+                    final long t0 = (latencies != null) ? System.nanoTime() : 0;
                     if (tree.insert(key)) {
                         keysum += key;
                         trueIns++;
                     } else falseIns++;                    
+                    if (latencies != null) latencies.record(System.nanoTime() - t0);
+                } else if (op < ratio.ins + ratio.del) {
+                    final long t0 = (latencies != null) ? System.nanoTime() : 0;
+                    if (tree.remove(key)) {
+                        keysum -= key;
+                        trueDel++;
+                    } else falseDel++;
+                    if (latencies != null) latencies.record(System.nanoTime() - t0);
+                } else if (op < ratio.ins + ratio.del + rangeRatio) {
+                    tree.rangeScan(key, (int) Math.min((long) key + scanWidth, Integer.MAX_VALUE), scanCounter);
+                    scans++;
+                } else if (op < ratio.ins + ratio.del + rangeRatio + pollRatio) {
+                    final OrderedBSTInterface queue = (OrderedBSTInterface) tree;
+                    final int polled = (spray > 0) ? queue.pollFirstRelaxed(spray) : queue.pollFirst();
+                    if (polled != OrderedBSTInterface.NONE) {
+                        keysum -= polled;
+                        polls++;
+                    } else emptyPolls++;
+                } else {
+                    if (tree.contains(key)) trueFind++;
+                    else falseFind++;
+                }
+            }
+        }
+
+        // batch mode: each step applies one operation type to batchSize random keys
+        private void runBatches(final int batchSize) {
+            final int[] keys = new int[batchSize];
+            final boolean[] results = new boolean[batchSize];
+            while (ex.state == ExperimentState.RUNNING) {
+                for (int i=0;i<batchSize;i++) keys[i] = gen.next();
+                final double op = rng.nextNatural() / (double) Integer.MAX_VALUE;
+                if (op < ratio.ins) {
+                    final int n = tree.insertAll(keys, results);
+                    for (int i=0;i<batchSize;i++) if (results[i]) keysum += keys[i];
+                    trueIns += n;
+                    falseIns += batchSize - n;
+                } else if (op < ratio.ins + ratio.del) {
+                    final int n = tree.removeAll(keys, results);
+                    for (int i=0;i<batchSize;i++) if (results[i]) keysum -= keys[i];
+                    trueDel += n;
+                    falseDel += batchSize - n;
+                } else {
+                    final int n = tree.containsAll(keys, results);
+                    trueFind += n;
+                    falseFind += batchSize - n;
+                }
+            }
+        }
+
+        // server mode: the thread sends batches of batchSize random operations
+        // over its own connection, keeping up to depth of them in flight, and
+        // times each batch from sending to receiving its answer
+        private void runRemote(final InetSocketAddress address, final int batchSize, final int depth) {
+            final byte[][] ops = new byte[depth][batchSize];
+            final int[][] keys = new int[depth][batchSize];
+            final long[] sent = new long[depth];
+            final boolean[] results = new boolean[batchSize];
+            roundTrips = new LatencyHistogram();
+            try (KeySetClient client = new KeySetClient(address)) {
+                int oldest = 0, inFlight = 0;
+                while (true) {
+                    while (inFlight < depth && ex.state == ExperimentState.RUNNING) {
+                        final int slot = (oldest + inFlight) % depth;
+                        for (int i=0;i<batchSize;i++) {
+                            final double op = rng.nextNatural() / (double) Integer.MAX_VALUE;
+                            ops[slot][i] = op < ratio.ins ? KeySetServer.INSERT
+                                    : op < ratio.ins + ratio.del ? KeySetServer.REMOVE : KeySetServer.CONTAINS;
+                            keys[slot][i] = gen.next();
+                        }
+                        sent[slot] = System.nanoTime();
+                        client.send(ops[slot], keys[slot], batchSize);
+                        inFlight++;
+                    }
+                    if (inFlight == 0) break;
+
+                    client.receive(results);
+                    roundTrips.record(System.nanoTime() - sent[oldest]);
+                    for (int i=0;i<batchSize;i++) {
+                        final int key = keys[oldest][i];
+                        switch (ops[oldest][i]) {
+                            case KeySetServer.INSERT:
+                                if (results[i]) { keysum += key; trueIns++; } else falseIns++;
+                                break;
+                            case KeySetServer.REMOVE:
+                                if (results[i]) { keysum -= key; trueDel++; } else falseDel++;
+                                break;
+                            default:
+                                if (results[i]) trueFind++; else falseFind++;
+                        }
+                    }
+                    oldest = (oldest + 1) % depth;
+                    inFlight--;
+                }
+            } catch (IOException e) { e.printStackTrace(); System.exit(-1); }
+        }
+
+        // map mode: inserts become put(), deletes remove(), searches get(), and
+        // updates add one to the value in place with computeIfPresent()
+        private void runMapOps(final BSTMap map) {
+            final double updateRatio = switches.get("ratio-update") / 100.;
+            final int valueBits = (int) switches.get("valueBits");
+            final long valueMask = (1L << valueBits) - 1;
+            final BSTMap.Remapping increment = new BSTMap.Remapping() {
+                public long apply(final int key, final long value) { return value + 1; }
+            };
+            while (ex.state == ExperimentState.RUNNING) {
+                final int key = gen.next();
+                final double op = rng.nextNatural() / (double) Integer.MAX_VALUE;
+                if (op < ratio.ins) {
+                    final long value = (((long) rng.nextInt() << 32) | (rng.nextInt() & 0xffffffffL)) & valueMask;
+                    final long previous = map.put(key, value);
+                    valuesum += value;
+                    if (previous == BSTMap.NO_VALUE) {
+                        keysum += key;
+                        trueIns++;
+                    } else {
+                        valuesum -= previous;
+                        falseIns++;
+                    }
+                } else if (op < ratio.ins + ratio.del) {
+                    final long previous = map.remove(key);
+                    if (previous != BSTMap.NO_VALUE) {
+                        keysum -= key;
+                        valuesum -= previous;
+                        trueDel++;
+                    } else falseDel++;
+                } else if (op < ratio.ins + ratio.del + updateRatio) {
+                    if (map.computeIfPresent(key, increment) != BSTMap.NO_VALUE) {
+                        valuesum++;
+                        trueUpdate++;
+                    } else falseUpdate++;
+                } else {
+                    if (map.get(key) != BSTMap.NO_VALUE) trueFind++;
+                    else falseFind++;
+                }
+            }
+        }
+
+        // 64-bit mode: the same workload with long keys
+        private void runLongOps(final LongBSTInterface tree) {
+            while (ex.state == ExperimentState.RUNNING) {
+                final long key = gen.nextLong();
+                final double op = rng.nextNatural() / (double) Integer.MAX_VALUE;
+                if (op < ratio.ins) {
+                    if (tree.insert(key)) {
+                        keysum += key;
+                        trueIns++;
+                    } else falseIns++;
                 } else if (op < ratio.ins + ratio.del) {
                     if (tree.remove(key)) {
                         keysum -= key;
@@ -191,11 +483,6 @@ public class Main {
                     else falseFind++;
                 }
             }
-            
-            // finish timing
-            wallTime = System.nanoTime();
-            userTime = bean.getThreadUserTime(id);
-            cpuTime = bean.getThreadCpuTime(id);
         }
 
         public int getOpCount() { return 0; }
@@ -205,6 +492,16 @@ public class Main {
         public int getFalseDel() { return falseDel; }
         public int getTrueFind() { return trueFind; }
         public int getFalseFind() { return falseFind; }
+        public int getScans() { return scans; }
+        public long getScannedKeys() { return scannedKeys; }
+        public int getPolls() { return polls; }
+        public int getEmptyPolls() { return emptyPolls; }
+        public int getTrueUpdate() { return trueUpdate; }
+        public int getFalseUpdate() { return falseUpdate; }
+        public long getValuesum() { return valuesum; }
+        public long getAllocatedBytes() { return allocatedBytes; }
+        public LatencyHistogram getLatencies() { return latencies; }
+        public LatencyHistogram getRoundTrips() { return roundTrips; }
         public long getStartTime() { return myStartWallTime; }
         public long getEndTime() { return wallTime; }
         public long getMyStartCPUTime() { return myStartCPUTime; }
@@ -278,14 +575,24 @@ public class Main {
             final BSTInterface tree,
             final Experiment ex) {
         
+        // serve the tree over loopback for the workers to reach through sockets
+        KeySetServer server = null;
+        if (switches.get("serve") > 0) {
+            try {
+                server = new KeySetServer(tree, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), (int) switches.get("serve"));
+                serverAddress = server.getAddress();
+            } catch (IOException e) { e.printStackTrace(); System.exit(-1); }
+        }
+        
         // prepare worker threads to run the trial
         startWallTime = new AtomicLong(0);
         startUserTime = new AtomicLong(0);
         CyclicBarrier start = new CyclicBarrier(ex.nprocs);
         ArrayList<RandomGenerator> arrays =  new ArrayList<RandomGenerator>(ex.nprocs); // generators supply keys for each thread
         ArrayList<Worker> workers = new ArrayList<Worker>(ex.nprocs);    // these are the threads that perform random operations
+        final Zipf zipf = (switches.get("zipf") > 0) ? new Zipf(ex.maxkey, switches.get("zipf")) : null;
         for (int i=0;i<ex.nprocs;i++) {
-            arrays.add(new RandomGenerator(i, ex.nprocs, new Random(rng.nextInt()), ex.maxkey));
+            arrays.add(new RandomGenerator(i, ex.nprocs, new Random(rng.nextInt()), ex.maxkey, zipf));
             workers.add(new TimedWorker((long) (nseconds*1e9), arrays.get(i), ex, rng, tree, start, startUserTime, startWallTime, workers));
         }
         
@@ -297,8 +604,23 @@ public class Main {
         for (int i=0;i<ex.nprocs;i++) workers.get(i).start();
         ex.state = ExperimentState.RUNNING;
         long localStartTime = System.nanoTime();
+        final int snapshotEvery = (int) switches.get("snapshotEvery");
+        long nsnapshots = 0, snapshotNanos = 0;
         try {
-            Thread.sleep((long)(nseconds * 1e3));
+            if (snapshotEvery > 0) {
+                // take and fully traverse a snapshot every snapshotEvery ms while the workers run
+                final long deadline = localStartTime + (long)(nseconds * 1e9);
+                while (System.nanoTime() + snapshotEvery * 1000000L < deadline) {
+                    Thread.sleep(snapshotEvery);
+                    final long t0 = System.nanoTime();
+                    checkSnapshot(((Snapshottable) tree).snapshot());
+                    snapshotNanos += System.nanoTime() - t0;
+                    nsnapshots++;
+                }
+                Thread.sleep(Math.max(0, (deadline - System.nanoTime()) / 1000000));
+            } else {
+                Thread.sleep((long)(nseconds * 1e3));
+            }
         } catch (InterruptedException ex1) {
             ex1.printStackTrace();
             System.exit(-1);
@@ -310,6 +632,15 @@ public class Main {
         try { for (int i=0;i<ex.nprocs;i++) workers.get(i).join(); }
         catch (InterruptedException e) { e.printStackTrace(); System.exit(-1); }
         final long gcTimeEnd = totalGarbageCollectionTimeMillis();
+        if (server != null) {
+            try { server.close(); } catch (IOException e) { e.printStackTrace(); System.exit(-1); }
+            serverAddress = null;
+        }
+        
+        // stop any background threads the tree runs, so it is quiescent from here on
+        if (tree instanceof AutoCloseable) {
+            try { ((AutoCloseable) tree).close(); } catch (Exception e) { e.printStackTrace(); System.exit(-1); }
+        }
         
         // compute key checksum for all threads (including from prefilling) and compare it with the key checksum for the data structure
         long threadsKeysum = pair.keysum;
@@ -320,6 +651,17 @@ public class Main {
         if (dsKeysum != threadsKeysum) {
             throw new RuntimeException("threadsKeysum=" + threadsKeysum + " does not match dsKeysum=" + dsKeysum);
         }
+        if (tree instanceof BSTMap.KeySet) {
+            // keys inserted by prefilling are mapped to 0, so only the workers contribute to the value checksum
+            long threadsValuesum = 0;
+            for (int i=0;i<ex.nprocs;++i) {
+                threadsValuesum += workers.get(i).getValuesum();
+            }
+            long dsValuesum = ((BSTMap.KeySet) tree).map().getValuesum();
+            if (dsValuesum != threadsValuesum) {
+                throw new RuntimeException("threadsValuesum=" + threadsValuesum + " does not match dsValuesum=" + dsValuesum);
+            }
+        }
         // produce output
         if (!discardResults) {
             long endWallTime = Long.MAX_VALUE;
@@ -331,6 +673,7 @@ public class Main {
             double elapsed = (localEndTime - localStartTime)/1e9;
             out.print(prefix + ",");
             long ntrueins = 0, nfalseins = 0, ntruedel = 0, nfalsedel = 0, ntruefind = 0, nfalsefind = 0;
+            long nscans = 0, nscannedkeys = 0, ntrueupdate = 0, nfalseupdate = 0, npolls = 0, nemptypolls = 0;
             for (Worker w : workers) {
                 ntrueins += w.getTrueIns();
                 nfalseins += w.getFalseIns();
@@ -338,11 +681,17 @@ public class Main {
                 nfalsedel += w.getFalseDel();
                 ntruefind += w.getTrueFind();
                 nfalsefind += w.getFalseFind();
+                nscans += w.getScans();
+                nscannedkeys += w.getScannedKeys();
+                npolls += w.getPolls();
+                nemptypolls += w.getEmptyPolls();
+                ntrueupdate += w.getTrueUpdate();
+                nfalseupdate += w.getFalseUpdate();
             }
             int nnodes = 0;
             double averageDepth = 0;
-            long ntrue = ntrueins+ntruedel+ntruefind, nfalse = nfalseins+nfalsedel+nfalsefind;
-            long nops = ntrue+nfalse;
+            long ntrue = ntrueins+ntruedel+ntruefind+ntrueupdate, nfalse = nfalseins+nfalsedel+nfalsefind+nfalseupdate;
+            long nops = ntrue+nfalse+nscans+npolls+nemptypolls;
             ex.throughput = (int)(nops/(double)elapsed);
             out.print(ex.nprocs + "," + nops + "," + ex.maxkey + ",");
             out.print(ex.ratio + ",");
@@ -357,6 +706,48 @@ public class Main {
             out.print(gcElapsedTime + ",");
         
             out.print(ex.throughput);
+            
+            // implementation-specific statistics, if any, and memory footprint
+            String stats = (tree instanceof Instrumented ? ((Instrumented) tree).getStats() : "");
+            final LatencyHistogram latencies = new LatencyHistogram();
+            for (Worker w : workers) {
+                if (w.getLatencies() != null) latencies.add(w.getLatencies());
+            }
+            final LatencyHistogram roundTrips = new LatencyHistogram();
+            for (Worker w : workers) {
+                if (w.getRoundTrips() != null) roundTrips.add(w.getRoundTrips());
+            }
+            if (roundTrips.count() > 0) {
+                stats += (stats.isEmpty() ? "" : " ") + "batchRttMeanUs=" + Math.round(roundTrips.mean() / 100) / 10.0
+                        + " batchRttP50Us=" + Math.round(roundTrips.percentile(50) / 100.) / 10.0
+                        + " batchRttP99Us=" + Math.round(roundTrips.percentile(99) / 100.) / 10.0;
+            }
+            if (latencies.count() > 0) {
+                stats += (stats.isEmpty() ? "" : " ") + "updateMeanUs=" + Math.round(latencies.mean() / 100) / 10.0
+                        + " updateP50Us=" + Math.round(latencies.percentile(50) / 100.) / 10.0
+                        + " updateP99Us=" + Math.round(latencies.percentile(99) / 100.) / 10.0;
+            }
+            if (nsnapshots > 0) {
+                stats += (stats.isEmpty() ? "" : " ") + "snapshots=" + nsnapshots + " snapshotMs=" + Math.round(snapshotNanos / 1e5 / nsnapshots) / 10.0;
+            }
+            if (nscans > 0) {
+                stats += (stats.isEmpty() ? "" : " ") + "scans=" + nscans + " keysPerScan=" + Math.round(nscannedkeys * 10. / nscans) / 10.0;
+            }
+            if (npolls + nemptypolls > 0) {
+                stats += (stats.isEmpty() ? "" : " ") + "polls=" + npolls + " emptyPolls=" + nemptypolls;
+            }
+            if (switches.get("measureAllocation") > 0) {
+                long allocated = 0;
+                for (Worker w : workers) allocated += w.getAllocatedBytes();
+                stats += (stats.isEmpty() ? "" : " ") + "allocMBps=" + Math.round(allocated / elapsed / 1e5) / 10.0
+                        + " allocBytesPerOp=" + Math.round(allocated * 10. / Math.max(nops, 1)) / 10.0;
+            }
+            if (switches.get("measureMemory") > 0) {
+                final int size = tree.size();
+                final double bytesPerKey = size > 0 ? (usedMemory() - memoryBaseline) / (double) size : 0;
+                stats += (stats.isEmpty() ? "" : " ") + "bytesPerKey=" + Math.round(bytesPerKey * 10) / 10.0;
+            }
+            out.print("," + stats);
     
             if (PRINT_FREEMEM) {
                 System.gc();
@@ -369,6 +760,35 @@ public class Main {
         return true;
     }
     
+    // counts and sums the keys of a snapshot by traversal and compares them with its O(1) size and keysum
+    private static void checkSnapshot(final Snapshottable.Snapshot snapshot) {
+        final long[] countAndSum = new long[2];
+        snapshot.rangeScan(Integer.MIN_VALUE, Integer.MAX_VALUE, new IntConsumer() {
+            public void accept(final int key) { countAndSum[0]++; countAndSum[1] += key; }
+        });
+        // the scan's bound excludes Integer.MAX_VALUE itself
+        if (snapshot.contains(Integer.MAX_VALUE)) { countAndSum[0]++; countAndSum[1] += Integer.MAX_VALUE; }
+        if (countAndSum[0] != snapshot.size() || countAndSum[1] != snapshot.getKeysum()) {
+            throw new RuntimeException("snapshot traversal found " + countAndSum[0] + " keys summing to " + countAndSum[1]
+                    + " but snapshot reports size=" + snapshot.size() + " keysum=" + snapshot.getKeysum());
+        }
+    }
+    
+    // heap and direct (off-heap) buffer memory in use after a full collection
+    private long usedMemory() {
+        System.gc();
+        long result = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            result += pool.getMemoryUsed();
+        }
+        return result;
+    }
+
+    // heap bytes the given thread has allocated so far (checked to be supported when -measureAllocation is parsed)
+    private long allocatedBytes(final long threadId) {
+        return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(threadId);
+    }
+
     private long totalGarbageCollectionTimeMillis() {
         final List<GarbageCollectorMXBean> gcbeans = ManagementFactory.getGarbageCollectorMXBeans();
         long result = 0;
@@ -395,11 +815,12 @@ public class Main {
         volatile ExperimentState state = ExperimentState.PENDING;
         double totalThreadTime;
         final String alg;
-        final int nprocs, maxkey;
+        final int nprocs;
+        final long maxkey;
         final Ratio ratio;
         int throughput; // exists to make access to this convenient so that we can decide whether we have finished warming up
 
-        public Experiment(final String alg, final int nprocs, final int maxkey, final Ratio ratio) {
+        public Experiment(final String alg, final int nprocs, final long maxkey, final Ratio ratio) {
             this.alg = alg;
             this.nprocs = nprocs;
             this.maxkey = maxkey;
@@ -498,7 +919,7 @@ public class Main {
         int numThreads = 0;    // number of threads to use for prefilling phase
         int numOperations = 0; // number of operations to perform per thread in each iteration (up to MAX_REPS iterations)
         
-        numThreads = Math.min(48, Runtime.getRuntime().availableProcessors() / 2);
+        numThreads = Math.max(1, Math.min(48, Runtime.getRuntime().availableProcessors() / 2));
         numOperations = 10 + maxkey/(2*numThreads);
 
         // we prefill over several iterations (up to MAX_REPS iterations).
@@ -539,9 +960,52 @@ public class Main {
         return new SizeKeysumPair(treeSize, keysum);
     }
     
+    // prefills tree with a key set drawn from the steady state of ratio: with
+    // uniformly random keys, each key is present independently with probability
+    // ins/(ins+del). A BST is built directly from the sorted keys, replacing
+    // tree; any other tree gets them inserted in random order. The filled tree
+    // is returned in the first element of the result.
+    Pair<BSTInterface, SizeKeysumPair> bulkFill(
+            final java.util.Random rand,
+            final BSTInterface tree,
+            final Ratio ratio,
+            final int maxkey) {
+        final long startFilling = System.nanoTime();
+        
+        // as in fillToSteadyState, an all-search workload is prefilled as if it were 50% insert, 50% delete
+        final double p = (Math.abs(ratio.ins + ratio.del) < 1e-8) ? 0.5 : ratio.ins / (ratio.ins + ratio.del);
+        int[] keys = new int[(int) Math.min(maxkey, maxkey * p * 1.01 + 16)];
+        int n = 0;
+        long keysum = 0;
+        for (long key=1;key<=maxkey;key++) { // long, so that maxkey == Integer.MAX_VALUE ends the loop
+            if (rand.nextDouble() < p) {
+                if (n == keys.length) keys = java.util.Arrays.copyOf(keys, (int) Math.min(maxkey, 2L * n));
+                keys[n++] = (int) key;
+                keysum += key;
+            }
+        }
+        keys = java.util.Arrays.copyOf(keys, n);
+        
+        BSTInterface filled = tree;
+        if (tree instanceof BST) {
+            filled = BST.fromSorted(keys, (BST) tree);
+        } else {
+            for (int i=n-1;i>0;i--) {
+                final int j = rand.nextInt(i+1);
+                final int t = keys[i]; keys[i] = keys[j]; keys[j] = t;
+            }
+            for (int i=0;i<n;i++) tree.insert(keys[i]);
+        }
+        
+        long endFilling = System.nanoTime();
+        System.out.print("initnodes-" + n + "-");
+        System.out.print("in" + toPercent((endFilling-startFilling) / 1e9 / 100) + "s[bulk]-");
+        return new Pair<BSTInterface, SizeKeysumPair>(filled, new SizeKeysumPair(n, keysum));
+    }
+    
     protected ArrayList<Experiment> getExperiments() {
         final ArrayList<Experiment> exp = new ArrayList<Experiment>();
-        exp.add(new Experiment(alg, nthreads, (int) switches.get("keyRange"), ratio));
+        exp.add(new Experiment(alg, nthreads, (long) switches.get("keyRange"), ratio));
         return exp;
     }
     
@@ -570,6 +1034,7 @@ public class Main {
                 + ",time"
                 + ",gcTime"
                 + ",throughput"
+                + ",stats"
                 );
         out.println();
         
@@ -597,18 +1062,57 @@ public class Main {
         java.util.Random rng = new java.util.Random((int) switches.get("seed"));
         for (Experiment ex : exp) {
             int experimentSeed = rng.nextInt();
+            // polls remove keys too, so prefill as if they were removes
+            final Ratio fillRatio = new Ratio(ex.ratio.ins, ex.ratio.del + switches.get("ratio-poll") / 100.);
             java.util.Random experimentRng = new java.util.Random(experimentSeed);
 
             for (int trial=0;trial<ntrials;++trial) {
-                BSTInterface tree = new BST();
+                if (switches.get("measureMemory") > 0) memoryBaseline = usedMemory();
+                BSTInterface tree = createTree(ex);
                 SizeKeysumPair p = new SizeKeysumPair(0, 0);
-                if (prefill) p = fillToSteadyState(experimentRng, tree, ex.ratio, ex.maxkey, false);
+                if (snapshotFile != null && new File(snapshotFile).exists()) {
+                    final long startLoading = System.nanoTime();
+                    try { tree = BST.load(new File(snapshotFile).toPath(), (BST) tree); }
+                    catch (IOException e) { e.printStackTrace(); System.exit(-1); }
+                    p = new SizeKeysumPair(tree.size(), tree.getKeysum());
+                    System.out.print("initnodes-" + p.treeSize + "-");
+                    System.out.print("in" + toPercent((System.nanoTime()-startLoading) / 1e9 / 100) + "s[" + snapshotFile + "]-");
+                } else if (prefill && switches.get("bulkPrefill") > 0) {
+                    final Pair<BSTInterface, SizeKeysumPair> filled = bulkFill(experimentRng, tree, fillRatio, (int) ex.maxkey);
+                    tree = filled.first;
+                    p = filled.second;
+                } else if (prefill) p = fillToSteadyState(experimentRng, tree, fillRatio, (int) ex.maxkey, false);
+                if (snapshotFile != null && !new File(snapshotFile).exists()) {
+                    // no snapshot yet: save this trial's starting tree for later trials and runs
+                    try { ((BST) tree).save(new File(snapshotFile).toPath()); }
+                    catch (IOException e) { e.printStackTrace(); System.exit(-1); }
+                }
+                if (switches.get("combine") > 0) tree = new FlatCombiningBST(tree);
+                if (switches.get("cache") > 0) tree = new HotKeyCache(tree, (int) switches.get("cache"));
+                if (switches.get("durable") > 0) tree = makeDurable(tree);
                 if (!runTrial(out, false, trial+1 == ntrials, tree.getName() + "," + trial, p, experimentRng, tree, ex)) System.exit(-1);
+                if (tree instanceof DurableBST) {
+                    if (snapshotFile != null) checkRecovery((DurableBST) tree);
+                    ((DurableBST) tree).getLog().toFile().delete();
+                }
                 progress(stdout, tree, ++nCompleted, trial, tree.getName(), startTime, numberOfRuns, ex);
             }
         }
     }
 
+    // recovers from the trial's log as after a crash, by replaying it on the
+    // snapshot the trial started from, and checks the result against the tree
+    protected void checkRecovery(final DurableBST tree) {
+        try {
+            final BSTInterface recovered = BST.load(new File(snapshotFile).toPath(), (BST) newTree(alg));
+            DurableBST.replay(tree.getLog(), recovered);
+            if (recovered.size() != tree.size() || recovered.getKeysum() != tree.getKeysum()) {
+                throw new RuntimeException("recovered size=" + recovered.size() + " keysum=" + recovered.getKeysum()
+                        + " does not match size=" + tree.size() + " keysum=" + tree.getKeysum());
+            }
+        } catch (IOException e) { e.printStackTrace(); System.exit(-1); }
+    }
+
     void progress(
             DualPrintStream stdout,
             final BSTInterface tree,
@@ -635,22 +1139,58 @@ public class Main {
             System.out.println("Can also include switches after mandatory arguments:");
             System.out.println("\t-s###     to set the random seed (32-bit signed int; default is " + Globals.DEFAULT_SEED + ")");
             System.out.println("\t-prefill  to prefill structures to steady state with random operations");
+            System.out.println("\t-loadSnapshot-### to start each BST trial from the tree saved in file ###, which is");
+            System.out.println("\t          created from the first trial's (prefilled) tree if it does not exist");
+            System.out.println("\t-prefill=bulk to prefill with a sampled steady-state key set instead (BST is built from it directly)");
             System.out.println("\t-file-### to specify an output file to store results in");
+            System.out.println("\t-alg-###  to choose the tree: BST (default), LockFreeBST, AVLTree,");
+            System.out.println("\t          RelaxedAVLTree, OffHeapBST, ArrayBST, PersistentBST, BSTMap, LongBST,");
+            System.out.println("\t          BPlusTree, KaryTree or SkipListSet");
+            System.out.println("\t-fanoutN  keys per node of BPlusTree (at least 4; default " + BPlusTree.DEFAULT_FANOUT + "),");
+            System.out.println("\t          or children per node of KaryTree (at least 2; default " + KaryTree.DEFAULT_K + ")");
+            System.out.println("\t-shards[N] to split the key range over N trees (default: number of cores)");
+            System.out.println("\t-batchN   to have each thread apply every operation to a batch of N keys");
+            System.out.println("\t-snapshotEveryN to take and traverse a snapshot every N ms during each trial (PersistentBST)");
+            System.out.println("\t-lockPolicy-### how BST threads wait for a node lock: SPIN, BACKOFF (default) or SPIN_THEN_PARK");
+            System.out.println("\t-backoffMIN-MAX to bound BST lock backoff to between MIN and MAX spins (default " + BST.DEFAULT_MIN_BACKOFF + "-" + BST.DEFAULT_MAX_BACKOFF + ")");
+            System.out.println("\t-serve[N] to serve the tree over 127.0.0.1 with N server threads (default: number of cores)");
+            System.out.println("\t          and have each thread send it batches of -batchN operations (default 16)");
+            System.out.println("\t-pipelineD with -serve, each thread keeps up to D batches in flight (default 8)");
+            System.out.println("\t-durableN to log updates to a file, committed (forced) as a group every N ms (0: continuously)");
+            System.out.println("\t-combine  to apply all threads' operations in batches through one combiner thread at a time");
+            System.out.println("\t-cache[N] to answer searches from a cache of N hot keys in front of the tree (default " + HotKeyCache.DEFAULT_CAPACITY + ")");
+            System.out.println("\t-latency  to report the mean, median and 99th percentile update latency in the stats column");
+            System.out.println("\t-recycle  to have BST reuse removed nodes for later inserts (epoch-based reclamation)");
+            System.out.println("\t-measureAllocation to report the rate and bytes per operation the workers allocate in the stats column");
+            System.out.println("\t-measureMemory to report the tree's heap and off-heap bytes per key in the stats column");
             System.out.println("The following switches determine which operations are run (leftover % becomes search):");
             System.out.println("\t-ins%     to specify what % (0 to 100) of ops should be inserts");
             System.out.println("\t-del%     to specify what % (0 to 100) of ops should be deletes");
+            System.out.println("\t-range%   to specify what % (0 to 100) of ops should be range scans");
+            System.out.println("\t-poll%    to specify what % (0 to 100) of ops should remove the smallest key (BST, SkipListSet)");
+            System.out.println("\t-spray[N] polls remove one of about the N smallest keys at random instead (default: 8 per thread)");
+            System.out.println("\t-scanWidthW range scans cover [k, k+W) for a random key k (default 100)");
+            System.out.println("\t-update%  to specify what % (0 to 100) of ops should update a value in place (BSTMap)");
+            System.out.println("\t-valueBitsN values put into BSTMap are uniform in [0,2^N) (1 to 63; default 63)");
             System.out.println("\t-keysM    random keys will be uniformly from range [0,M) (default 1000000)");
+            System.out.println("\t-zipfT    draw keys from a Zipfian distribution with skew T in (0,1) instead, e.g. -zipf0.99");
+            System.out.println("\t          M may be up to 2^53 for trees with 64-bit keys (LongBST)");
             System.exit(-1);
         }
         int nthreads = 0;
         int ntrials = 0;
         double nseconds = 0;
         String filename = null;
+        String alg = "BST";
         boolean prefill = false;
+        String snapshotFile = null;
+        boolean valueBitsGiven = false;
 
         SwitchMap switches = new SwitchMap();
         switches.put("seed", (double) Globals.DEFAULT_SEED);
         switches.put("keyRange", (double) Globals.DEFAULT_KEYRANGE);
+        switches.put("scanWidth", 100.);
+        switches.put("valueBits", 63.);
         
         try {
             nthreads = Integer.parseInt(args[0]);
@@ -708,21 +1248,228 @@ public class Main {
                         System.out.println("The delete percentage must be a 32-bit integer.");
                         System.exit(-1);
                     }
+                } else if (args[i].matches("-range[0-9]+(\\.[0-9]+){0,1}")) {
+                    try {
+                        switches.put("ratio-range", Double.parseDouble(args[i].substring("-range".length())));
+                        totalOpPercent += switches.get("ratio-range");
+                    } catch (Exception ex) {
+                        System.out.println("The range scan percentage must be a number.");
+                        System.exit(-1);
+                    }
+                } else if (args[i].matches("-poll[0-9]+(\\.[0-9]+){0,1}")) {
+                    try {
+                        switches.put("ratio-poll", Double.parseDouble(args[i].substring("-poll".length())));
+                        totalOpPercent += switches.get("ratio-poll");
+                    } catch (Exception ex) {
+                        System.out.println("The poll percentage must be a number.");
+                        System.exit(-1);
+                    }
+                } else if (args[i].matches("-spray[0-9]*")) {
+                    try {
+                        final String n = args[i].substring("-spray".length());
+                        switches.put("spray", 1.);
+                        switches.put("sprayWidth", (double) (n.isEmpty() ? 0 : Integer.parseInt(n)));
+                        if (!n.isEmpty() && switches.get("sprayWidth") < 1) {
+                            System.out.println("The spray width must be > 0");
+                            System.exit(-1);
+                        }
+                    } catch (Exception ex) {
+                        System.out.println("The spray width must be a 32-bit integer.");
+                        System.exit(-1);
+                    }
+                } else if (args[i].matches("-update[0-9]+(\\.[0-9]+){0,1}")) {
+                    try {
+                        switches.put("ratio-update", Double.parseDouble(args[i].substring("-update".length())));
+                        totalOpPercent += switches.get("ratio-update");
+                    } catch (Exception ex) {
+                        System.out.println("The update percentage must be a number.");
+                        System.exit(-1);
+                    }
+                } else if (args[i].matches("-valueBits[0-9]+")) {
+                    try {
+                        switches.put("valueBits", (double) Integer.parseInt(args[i].substring("-valueBits".length())));
+                        valueBitsGiven = true;
+                        if (switches.get("valueBits") < 1 || switches.get("valueBits") > 63) {
+                            System.out.println("The value size must be between 1 and 63 bits");
+                            System.exit(-1);
+                        }
+                    } catch (Exception ex) {
+                        System.out.println("The value size must be a 32-bit integer.");
+                        System.exit(-1);
+                    }
+                } else if (args[i].matches("-scanWidth[0-9]+")) {
+                    try {
+                        switches.put("scanWidth", (double) Integer.parseInt(args[i].substring("-scanWidth".length())));
+                        if (switches.get("scanWidth") < 1) {
+                            System.out.println("The scan width must be > 0");
+                            System.exit(-1);
+                        }
+                    } catch (Exception ex) {
+                        System.out.println("The scan width must be a 32-bit integer.");
+                        System.exit(-1);
+                    }
                 } else if (args[i].matches("-keys[0-9]+")) {
                     try {
-                        switches.put("keyRange", (double) Integer.parseInt(args[i].substring(5, args[i].length())));
-                        if (switches.get("keyRange") < 1) {
-                            System.out.println("The key range must be > 0");
+                        final long keyRange = Long.parseLong(args[i].substring(5, args[i].length()));
+                        if (keyRange < 1 || keyRange > MAX_KEYRANGE) {
+                            System.out.println("The key range must be > 0 and at most 2^53");
                             System.exit(-1);
                         }
+                        switches.put("keyRange", (double) keyRange);
                     } catch (Exception ex) {
-                        System.out.println("The key range must be a 32-bit integer.");
+                        System.out.println("The key range must be a 64-bit integer.");
                         System.exit(-1);
                     }
+                } else if (args[i].startsWith("-loadSnapshot-")) {
+                    snapshotFile = args[i].substring("-loadSnapshot-".length());
                 } else if (args[i].startsWith("-file-")) {
                     filename = args[i].substring("-file-".length());
+                } else if (args[i].startsWith("-alg-")) {
+                    alg = args[i].substring("-alg-".length());
+                    if (treeClass(alg) == null) {
+                        System.out.println("Unknown algorithm: \"" + alg + "\"");
+                        System.exit(-1);
+                    }
+                } else if (args[i].matches("-fanout[0-9]+")) {
+                    try {
+                        switches.put("fanout", (double) Integer.parseInt(args[i].substring("-fanout".length())));
+                        if (switches.get("fanout") < 2) {
+                            System.out.println("The fanout must be at least 2");
+                            System.exit(-1);
+                        }
+                    } catch (Exception ex) {
+                        System.out.println("The fanout must be a 32-bit integer.");
+                        System.exit(-1);
+                    }
+                } else if (args[i].matches("-shards[0-9]*")) {
+                    try {
+                        final String n = args[i].substring("-shards".length());
+                        switches.put("shards", (double) (n.isEmpty() ? NUMBER_OF_PROCESSORS : Integer.parseInt(n)));
+                        if (switches.get("shards") < 1) {
+                            System.out.println("The number of shards must be > 0");
+                            System.exit(-1);
+                        }
+                    } catch (Exception ex) {
+                        System.out.println("The number of shards must be a 32-bit integer.");
+                        System.exit(-1);
+                    }
+                } else if (args[i].matches("-batch[0-9]+")) {
+                    try {
+                        switches.put("batch", (double) Integer.parseInt(args[i].substring("-batch".length())));
+                        if (switches.get("batch") < 1) {
+                            System.out.println("The batch size must be > 0");
+                            System.exit(-1);
+                        }
+                    } catch (Exception ex) {
+                        System.out.println("The batch size must be a 32-bit integer.");
+                        System.exit(-1);
+                    }
+                } else if (args[i].matches("-snapshotEvery[0-9]+")) {
+                    try {
+                        switches.put("snapshotEvery", (double) Integer.parseInt(args[i].substring("-snapshotEvery".length())));
+                        if (switches.get("snapshotEvery") < 1) {
+                            System.out.println("The snapshot interval must be > 0");
+                            System.exit(-1);
+                        }
+                    } catch (Exception ex) {
+                        System.out.println("The snapshot interval must be a 32-bit integer.");
+                        System.exit(-1);
+                    }
+                } else if (args[i].startsWith("-lockPolicy-")) {
+                    try {
+                        final BST.LockPolicy policy = BST.LockPolicy.valueOf(args[i].substring("-lockPolicy-".length()));
+                        switches.put("lockPolicy", (double) (policy.ordinal() + 1));
+                    } catch (Exception ex) {
+                        System.out.println("The lock policy must be SPIN, BACKOFF or SPIN_THEN_PARK.");
+                        System.exit(-1);
+                    }
+                } else if (args[i].matches("-backoff[0-9]+-[0-9]+")) {
+                    try {
+                        final String[] bounds = args[i].substring("-backoff".length()).split("-");
+                        switches.put("backoffMin", (double) Integer.parseInt(bounds[0]));
+                        switches.put("backoffMax", (double) Integer.parseInt(bounds[1]));
+                        if (switches.get("backoffMin") < 1 || switches.get("backoffMax") < switches.get("backoffMin")) {
+                            System.out.println("The backoff bounds must satisfy 1 <= MIN <= MAX");
+                            System.exit(-1);
+                        }
+                    } catch (Exception ex) {
+                        System.out.println("The backoff bounds must be 32-bit integers.");
+                        System.exit(-1);
+                    }
+                } else if (args[i].matches("-serve[0-9]*")) {
+                    try {
+                        final String n = args[i].substring("-serve".length());
+                        switches.put("serve", (double) (n.isEmpty() ? NUMBER_OF_PROCESSORS : Integer.parseInt(n)));
+                        if (switches.get("serve") < 1) {
+                            System.out.println("The number of server threads must be > 0");
+                            System.exit(-1);
+                        }
+                    } catch (Exception ex) {
+                        System.out.println("The number of server threads must be a 32-bit integer.");
+                        System.exit(-1);
+                    }
+                } else if (args[i].matches("-pipeline[0-9]+")) {
+                    try {
+                        switches.put("pipeline", (double) Integer.parseInt(args[i].substring("-pipeline".length())));
+                        if (switches.get("pipeline") < 1) {
+                            System.out.println("The pipeline depth must be > 0");
+                            System.exit(-1);
+                        }
+                    } catch (Exception ex) {
+                        System.out.println("The pipeline depth must be a 32-bit integer.");
+                        System.exit(-1);
+                    }
+                } else if (args[i].matches("-durable[0-9]+")) {
+                    try {
+                        switches.put("commitInterval", (double) Integer.parseInt(args[i].substring("-durable".length())));
+                        switches.put("durable", 1.);
+                        switches.put("latency", 1.);
+                    } catch (Exception ex) {
+                        System.out.println("The commit interval must be a 32-bit integer.");
+                        System.exit(-1);
+                    }
+                } else if (args[i].matches("-cache[0-9]*")) {
+                    try {
+                        final String n = args[i].substring("-cache".length());
+                        switches.put("cache", (double) (n.isEmpty() ? HotKeyCache.DEFAULT_CAPACITY : Integer.parseInt(n)));
+                        if (switches.get("cache") < 8 || switches.get("cache") > 1 << 30) {
+                            System.out.println("The cache capacity must be in [8, 2^30]");
+                            System.exit(-1);
+                        }
+                    } catch (Exception ex) {
+                        System.out.println("The cache capacity must be a 32-bit integer.");
+                        System.exit(-1);
+                    }
+                } else if (args[i].matches("-combine")) {
+                    switches.put("combine", 1.);
+                } else if (args[i].matches("-zipf[0-9.]+")) {
+                    try {
+                        switches.put("zipf", Double.parseDouble(args[i].substring("-zipf".length())));
+                        if (!(switches.get("zipf") > 0 && switches.get("zipf") < 1)) {
+                            System.out.println("The Zipfian skew must be in (0,1)");
+                            System.exit(-1);
+                        }
+                    } catch (Exception ex) {
+                        System.out.println("The Zipfian skew must be a number.");
+                        System.exit(-1);
+                    }
+                } else if (args[i].matches("-latency")) {
+                    switches.put("latency", 1.);
+                } else if (args[i].matches("-recycle")) {
+                    switches.put("recycle", 1.);
+                } else if (args[i].matches("-measureAllocation")) {
+                    if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+                        System.out.println("This JVM cannot measure allocation per thread");
+                        System.exit(-1);
+                    }
+                    switches.put("measureAllocation", 1.);
+                } else if (args[i].matches("-measureMemory")) {
+                    switches.put("measureMemory", 1.);
                 } else if (args[i].matches("-prefill")) {
                     prefill = true;
+                } else if (args[i].matches("-prefill=bulk")) {
+                    prefill = true;
+                    switches.put("bulkPrefill", 1.);
                 } else {
                     System.out.println("Unrecognized command-line switch: \"" + args[i] + "\"");
                     System.exit(-1);
@@ -730,14 +1477,113 @@ public class Main {
             }
         }
 
+        if (snapshotFile != null && (!alg.equals("BST") || switches.get("shards") > 0)) {
+            System.out.println("-loadSnapshot only works with an unsharded BST");
+            System.exit(-1);
+        }
+        if (switches.get("lockPolicy") > 0 || switches.get("backoffMin") > 0 || switches.get("recycle") > 0) {
+            if (!alg.equals("BST")) {
+                System.out.println("-lockPolicy, -backoff and -recycle only apply to BST");
+                System.exit(-1);
+            }
+            if (switches.get("lockPolicy") == 0) switches.put("lockPolicy", (double) (BST.LockPolicy.BACKOFF.ordinal() + 1));
+            if (switches.get("backoffMin") == 0) {
+                switches.put("backoffMin", (double) BST.DEFAULT_MIN_BACKOFF);
+                switches.put("backoffMax", (double) BST.DEFAULT_MAX_BACKOFF);
+            }
+        }
+        if (switches.get("serve") > 0) {
+            if (switches.get("pipeline") == 0) switches.put("pipeline", 8.);
+            if (switches.get("batch") > KeySetServer.MAX_BATCH) {
+                System.out.println("With -serve, batches hold at most " + KeySetServer.MAX_BATCH + " operations");
+                System.exit(-1);
+            }
+            if (switches.get("ratio-range") > 0 || switches.get("ratio-update") > 0 || switches.get("keyRange") > Integer.MAX_VALUE
+                    || alg.equals("BSTMap")) {
+                System.out.println("-serve only supports insert, delete and search on int keys (not -range, -update, BSTMap or 64-bit keys)");
+                System.exit(-1);
+            }
+        } else if (switches.get("pipeline") > 0) {
+            System.out.println("-pipeline needs -serve");
+            System.exit(-1);
+        }
+        if (switches.get("fanout") > 0 && !alg.equals("BPlusTree") && !alg.equals("KaryTree")) {
+            System.out.println("-fanout only applies to BPlusTree and KaryTree");
+            System.exit(-1);
+        }
+        if (switches.get("fanout") > 0 && switches.get("fanout") < 4 && alg.equals("BPlusTree")) {
+            System.out.println("BPlusTree needs a fanout of at least 4");
+            System.exit(-1);
+        }
+        if (alg.equals("LockFreeBST") && switches.get("keyRange") > Integer.MAX_VALUE - 2) {
+            // keys Integer.MAX_VALUE - 1 and Integer.MAX_VALUE are the tree's sentinels
+            System.out.println("LockFreeBST supports key ranges up to " + (Integer.MAX_VALUE - 2));
+            System.exit(-1);
+        }
+        if (alg.equals("LongBST") && (switches.get("ratio-range") > 0 || switches.get("ratio-poll") > 0 || switches.get("latency") > 0
+                || switches.get("zipf") > 0 || switches.get("cache") > 0 || switches.get("combine") > 0)) {
+            // the 64-bit workload only knows insert, delete and search on uniform keys
+            System.out.println("LongBST only supports insert, delete and search on uniform keys (not -range, -poll, -latency, -durable, -zipf, -cache or -combine)");
+            System.exit(-1);
+        }
+        if (switches.get("keyRange") > Integer.MAX_VALUE) {
+            if (!LongBSTInterface.class.isAssignableFrom(treeClass(alg))) {
+                System.out.println("Key ranges beyond 2^31 need a tree with 64-bit keys (e.g., LongBST)");
+                System.exit(-1);
+            }
+            if (prefill || switches.get("shards") > 0 || switches.get("batch") > 0) {
+                System.out.println("Key ranges beyond 2^31 cannot be combined with -prefill, -shards or -batch");
+                System.exit(-1);
+            }
+        }
+        if (switches.get("ratio-poll") > 0) {
+            if (!OrderedBSTInterface.class.isAssignableFrom(treeClass(alg)) || switches.get("shards") > 0 || switches.get("batch") > 0
+                    || switches.get("serve") > 0 || switches.get("cache") > 0 || switches.get("combine") > 0 || switches.get("durable") > 0) {
+                System.out.println("-poll needs an unwrapped tree with ordered operations (BST or SkipListSet), without -shards, -batch, -serve, -cache, -combine or -durable");
+                System.exit(-1);
+            }
+            if (switches.get("spray") > 0 && switches.get("sprayWidth") == 0) switches.put("sprayWidth", 8. * nthreads);
+        } else if (switches.get("spray") > 0) {
+            System.out.println("-spray needs -poll");
+            System.exit(-1);
+        }
+        if (switches.get("zipf") > 0 && switches.get("keyRange") > Integer.MAX_VALUE) {
+            System.out.println("-zipf only supports key ranges up to 2^31");
+            System.exit(-1);
+        }
+        if ((switches.get("ratio-update") > 0 || valueBitsGiven) && (!alg.equals("BSTMap") || switches.get("shards") > 0 || switches.get("batch") > 0
+                || switches.get("durable") > 0 || switches.get("cache") > 0 || switches.get("combine") > 0 || switches.get("serve") > 0)) {
+            // only the map mode of an unwrapped BSTMap does updates and draws values
+            System.out.println("-update and -valueBits need BSTMap without -shards, -batch, -durable, -cache, -combine or -serve");
+            System.exit(-1);
+        }
+        if (switches.get("cache") > 0 && (alg.equals("BSTMap") || switches.get("keyRange") > Integer.MAX_VALUE || switches.get("snapshotEvery") > 0)) {
+            System.out.println("-cache cannot be combined with BSTMap, 64-bit keys or -snapshotEvery");
+            System.exit(-1);
+        }
+        if (switches.get("combine") > 0 && (alg.equals("BSTMap") || switches.get("keyRange") > Integer.MAX_VALUE || switches.get("snapshotEvery") > 0)) {
+            System.out.println("-combine cannot be combined with BSTMap, 64-bit keys or -snapshotEvery");
+            System.exit(-1);
+        }
+        if (switches.get("snapshotEvery") > 0 && !Snapshottable.class.isAssignableFrom(treeClass(alg))) {
+            System.out.println("-snapshotEvery needs a tree that supports snapshots (e.g., PersistentBST)");
+            System.exit(-1);
+        }
+        if ((switches.get("shards") > 0 || switches.get("durable") > 0) && switches.get("snapshotEvery") > 0) {
+            System.out.println("-snapshotEvery cannot be combined with -shards or -durable");
+            System.exit(-1);
+        }
+
         if (totalOpPercent > 100) {
             System.out.println("Total percentage over all operations cannot exceed 100");
             System.exit(-1);
         }
 
-        (new Main(nthreads, ntrials, nseconds, filename,
+        final Main main = new Main(nthreads, ntrials, nseconds, filename,
                 new Ratio(switches.get("ratio-ins") / 100., switches.get("ratio-del") / 100.),
-                switches, prefill)).run(output);
+                alg, switches, prefill);
+        main.snapshotFile = snapshotFile;
+        main.run(output);
     }
 
     public static void main(String[] args) throws Exception {
@@ -0,0 +1,48 @@
+package main;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Implemented by trees that can answer order queries and serve as a
+ * concurrent priority queue through pollFirst().
+ *
+ * The queries are as weakly consistent as range scans: under concurrent
+ * updates they return a key that was present at some point during the call,
+ * and no key that was present for the whole call lies between that key and
+ * the argument. pollFirst() is linearizable.
+ */
+public interface OrderedBSTInterface extends BSTInterface {
+    // Returned when there is no such key; never a key of the set
+    public static final int NONE = Integer.MIN_VALUE;
+
+    // How many keys pollFirstRelaxed() tries before it falls back to pollFirst()
+    public static final int RELAXED_ATTEMPTS = 4;
+
+    // Smallest and largest key, or NONE if the set is empty
+    public int first();
+    public int last();
+    // Largest key <= key and smallest key >= key, or NONE if there is none
+    public int floor(final int key);
+    public int ceiling(final int key);
+    // Removes and returns the smallest key, or NONE if the set is empty
+    public int pollFirst();
+
+    // Removes and returns one of about the spread smallest keys, picked at
+    // random, so that concurrent callers mostly remove different keys instead
+    // of all contending for the first one (as in the SprayList). Not
+    // linearizable as a deleteMin; NONE only if the set is empty.
+    public default int pollFirstRelaxed(final int spread) {
+        for (int attempt = 0; attempt < RELAXED_ATTEMPTS; attempt++) {
+            int skip = ThreadLocalRandom.current().nextInt(spread);
+            int key = first();
+            if (key == NONE) break;
+            while (skip-- > 0 && key < Integer.MAX_VALUE) {
+                final int next = ceiling(key + 1);
+                if (next == NONE) break;
+                key = next;
+            }
+            if (remove(key)) return key;
+        }
+        return pollFirst();
+    }
+}
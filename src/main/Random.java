@@ -22,9 +22,17 @@ package main;
 public class Random {
 
     private int seed;
+    // separate 64-bit state for long values, so they are not limited to the
+    // 2^32 values that pairs of 32-bit outputs can take
+    private long seed64;
 
     public Random(int seed) {
         this.seed = seed;
+        // spread the seed with the splitmix64 finalizer; xorshift needs a nonzero state
+        long z = (seed & 0xffffffffL) + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        this.seed64 = (z ^ (z >>> 31)) | 1;
     }
 
     /** returns pseudorandom x satisfying 0 <= x < n. **/
@@ -43,6 +51,15 @@ public class Random {
         return (seed < 0 ? -seed : seed);
     }
 
+    /** returns pseudorandom x satisfying 0 <= x < n. **/
+    public long nextNatural(long n) {
+        // xorshift64*
+        seed64 ^= seed64 >>> 12;
+        seed64 ^= seed64 << 25;
+        seed64 ^= seed64 >>> 27;
+        return ((seed64 * 0x2545F4914F6CDD1DL) >>> 1) % n;
+    }
+
     /** returns pseudorandom x satisfying MIN_INT <= x <= MAX_INT. **/
     public int nextInt() {
         seed ^= seed << 6;
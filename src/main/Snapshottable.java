@@ -0,0 +1,20 @@
+package main;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Implemented by trees that can hand out immutable point-in-time views of
+ * their contents while updates continue.
+ */
+public interface Snapshottable {
+    // A consistent view of the set at the moment snapshot() was called
+    public interface Snapshot {
+        public boolean contains(final int key);
+        public int size();
+        public long getKeysum();
+        // Reports the keys in [lo, hi) in ascending order
+        public void rangeScan(final int lo, final int hi, final IntConsumer action);
+    }
+
+    public Snapshot snapshot();
+}
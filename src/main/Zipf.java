@@ -0,0 +1,60 @@
+package main;
+
+/**
+ * Zipfian keys in [1, n]: the key of rank r (0-based) is drawn with
+ * probability proportional to 1/(r+1)^theta. Ranks are drawn as in Gray et
+ * al., "Quickly Generating Billion-Record Synthetic Databases" (SIGMOD 1994),
+ * and scattered over the key range by a bijection, so the hot keys are not
+ * all neighbours in the tree. Immutable; threads share one instance.
+ */
+public class Zipf {
+    // zeta(n) is summed exactly over this many terms and estimated beyond
+    static final int EXACT_TERMS = 1 << 20;
+    // scatter multipliers: primes, at most one of which can divide any n < 2^31
+    static final long[] SCATTER = { 1000000007L, 998244353L };
+
+    private final long n;
+    private final double theta;
+    private final double zetan;
+    private final double alpha;
+    private final double eta;
+    private final long scatter;
+
+    public Zipf(final long n, final double theta) {
+        if (n < 1 || n > Integer.MAX_VALUE || !(theta > 0 && theta < 1)) {
+            throw new IllegalArgumentException("need 1 <= n < 2^31 and 0 < theta < 1");
+        }
+        this.n = n;
+        this.theta = theta;
+        this.zetan = zeta(n, theta);
+        this.alpha = 1 / (1 - theta);
+        this.eta = (1 - Math.pow(2. / n, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+        this.scatter = (n % SCATTER[0] != 0) ? SCATTER[0] : SCATTER[1];
+    }
+
+    static double zeta(final long n, final double theta) {
+        final long m = Math.min(n, EXACT_TERMS);
+        double sum = 0;
+        for (long i=1;i<=m;i++) sum += 1 / Math.pow(i, theta);
+        if (n > m) {
+            // Euler-Maclaurin: the integral of x^-theta over [m, n] plus the endpoint correction
+            sum += (Math.pow(n, 1 - theta) - Math.pow(m, 1 - theta)) / (1 - theta)
+                    + (Math.pow(n, -theta) - Math.pow(m, -theta)) / 2;
+        }
+        return sum;
+    }
+
+    // rank in [0, n), 0 being the most popular
+    public long nextRank(final Random rng) {
+        final double u = rng.nextNatural() / (double) Integer.MAX_VALUE;
+        final double uz = u * zetan;
+        if (uz < 1) return 0;
+        if (uz < 1 + Math.pow(0.5, theta)) return Math.min(1, n - 1);
+        return Math.min((long) (n * Math.pow(eta * u - eta + 1, alpha)), n - 1);
+    }
+
+    // key in [1, n]
+    public int next(final Random rng) {
+        return (int) (nextRank(rng) * scatter % n) + 1;
+    }
+}
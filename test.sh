@@ -11,3 +11,19 @@ do
 		done
 	done
 done
+
+# BPlusTree from empty with the smallest nodes, so that most inserts race
+# with splits; each trial validates the tree's key sum
+for T in 1 4 32
+do
+	./run $T 4 2 -keys1048576 -ins100 -alg-BPlusTree -fanout4 -seed$RANDOM
+done
+
+# durable BST: each trial's log is replayed on the snapshot it started
+# from, and the recovered tree is checked against the trial's tree
+rm -f test-snapshot.bin
+for T in 1 4 32
+do
+	./run $T 2 2 -keys65536 -ins50 -del50 -prefill -durable1 -loadSnapshot-test-snapshot.bin -seed$RANDOM
+done
+rm -f test-snapshot.bin